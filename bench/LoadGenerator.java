@@ -0,0 +1,410 @@
+package bench;
+
+import core.Connect4;
+import core.Histogram;
+import core.Protocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless load and soak test of {@link core.Connect4Server} on localhost
+ * <p>
+ * Starts a server JVM, or uses one already running, and runs simulated
+ * clients against it. Every client speaks the binary protocol of
+ * {@code ui.Connect4Client} and plays one game per connection: random moves,
+ * or a script of columns followed by random moves once the script ends or no
+ * longer fits. After a game it reconnects for the next one. Every interval it
+ * prints connections and games per second, move round trip percentiles and
+ * the server's sessions, heap and threads read from its metrics endpoint.
+ * <p>
+ * {@code java bench.LoadGenerator --clients=200 --duration=60 --mode=nio}, options:
+ * <ul>
+ * <li>{@code --clients} simulated clients, default 100</li>
+ * <li>{@code --duration} seconds to run, default 30</li>
+ * <li>{@code --interval} seconds between reports, default 5</li>
+ * <li>{@code --rate} moves per second over all clients, 0 plays as fast as possible (default)</li>
+ * <li>{@code --script} columns every game starts with, e.g. {@code 4453}</li>
+ * <li>{@code --variant} board asked for as columns x rows x pieces in a row, default {@code 7x6x4}</li>
+ * <li>{@code --mode} thread, virtual or nio starts a server JVM in that mode (default thread),
+ * none uses the server at {@code --port}</li>
+ * <li>{@code --port} server port, default 18182</li>
+ * <li>{@code --metrics-port} server metrics port, default 18183</li>
+ * <li>{@code --seed} random seed, default 1</li>
+ * </ul>
+ * A round trip is the time from sending a move to reading its status.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+public class LoadGenerator {
+    private final Map<String, String> options;
+    private final int clients, port, metricsPort;
+    private final long moveInterval;
+    private final String script;
+    private final byte[] variant;
+    private final long seed;
+
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder games = new LongAdder();
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final Histogram roundTrip = new Histogram();
+    private final AtomicLong lastError = new AtomicLong();
+    private volatile boolean running = true;
+
+    private LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        clients = Integer.parseInt(options.getOrDefault("clients", "100"));
+        port = Integer.parseInt(options.getOrDefault("port", "18182"));
+        metricsPort = Integer.parseInt(options.getOrDefault("metrics-port", "18183"));
+        long rate = Long.parseLong(options.getOrDefault("rate", "0"));
+        moveInterval = rate > 0 ? TimeUnit.SECONDS.toNanos(clients) / rate : 0;
+        script = options.getOrDefault("script", "");
+        variant = parseVariant(options.getOrDefault("variant",
+                Connect4.DEFAULT_COLUMNS + "x" + Connect4.DEFAULT_ROWS + "x" + Connect4.DEFAULT_CONNECT));
+        seed = Long.parseLong(options.getOrDefault("seed", "1"));
+    }
+
+    /**
+     * The entry point of application.
+     *
+     * @param args Options of the form {@code --name=value}, see the class comment
+     * @throws Exception If the server cannot be started
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0)
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        new LoadGenerator(options).run();
+    }
+
+    /**
+     * Runs the clients for the configured duration and reports
+     *
+     * @throws Exception If the server cannot be started
+     */
+    private void run() throws Exception {
+        String mode = options.getOrDefault("mode", "thread");
+        long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "30")));
+        long interval = TimeUnit.SECONDS.toMillis(Long.parseLong(options.getOrDefault("interval", "5")));
+
+        Process server = mode.equals("none") ? null : startServer(mode);
+        ExecutorService executor = clientExecutor();
+        try {
+            for (int i = 0; i < clients; i++) {
+                SplittableRandom random = new SplittableRandom(seed * 1_000_003L + i);
+                executor.execute(() -> client(random));
+            }
+
+            System.out.printf("%8s %9s %9s %9s %9s %9s %9s %9s %12s %8s %7s%n", "seconds", "conn/s", "games/s", "moves/s",
+                    "p50 us", "p99 us", "p999 us", "sessions", "heap MB", "threads", "errors");
+            long start = System.nanoTime(), last = start;
+            long lastConnections = 0, lastGames = 0, lastMoves = 0;
+            while (System.nanoTime() - start < duration) {
+                Thread.sleep(interval);
+                long now = System.nanoTime();
+                double secs = (now - last) / 1e9;
+                long c = connections.sum(), g = games.sum(), m = moves.sum();
+                Map<String, Long> stats = scrape();
+                System.out.printf("%8.0f %9.0f %9.0f %9.0f %9d %9d %9d %9s %12s %8s %7d%n",
+                        (now - start) / 1e9, (c - lastConnections) / secs, (g - lastGames) / secs, (m - lastMoves) / secs,
+                        micros(50), micros(99), micros(99.9), stat(stats, "connect4_sessions_active", 1),
+                        stat(stats, "jvm_heap_used_bytes", 1 << 20), stat(stats, "jvm_threads", 1), errors.sum());
+                last = now;
+                lastConnections = c;
+                lastGames = g;
+                lastMoves = m;
+            }
+
+            double total = (System.nanoTime() - start) / 1e9;
+            System.out.printf("total: %d connections (%.0f/s), %d games (%.0f/s), %d moves, round trip p50 %d us, p99 %d us, p999 %d us%n",
+                    connections.sum(), connections.sum() / total, games.sum(), games.sum() / total, moves.sum(),
+                    micros(50), micros(99), micros(99.9));
+        } finally {
+            running = false;
+            executor.shutdownNow();
+            if (server != null)
+                server.destroy();
+        }
+    }
+
+    /**
+     * One simulated client, plays games until the run ends
+     *
+     * @param random Moves of this client
+     */
+    private void client(SplittableRandom random) {
+        long nextMove = System.nanoTime();
+        while (running) {
+            try (Socket socket = new Socket("localhost", port)) {
+                socket.setTcpNoDelay(true);
+                connections.increment();
+                nextMove = game(socket, random, nextMove);
+                games.increment();
+            } catch (IOException e) {
+                if (!running)
+                    return;
+                errors.increment();
+                // At most one message a second, and a short back off so a dead server does not spin every client
+                long now = System.nanoTime(), last = lastError.get();
+                if (now - last > TimeUnit.SECONDS.toNanos(1) && lastError.compareAndSet(last, now))
+                    System.out.println("Client error: " + e.getMessage());
+                sleep(TimeUnit.MILLISECONDS.toNanos(100));
+            }
+        }
+    }
+
+    /**
+     * Plays one game on a fresh connection
+     *
+     * @param socket   Connected socket
+     * @param random   Moves of this client
+     * @param nextMove When the next move may be sent
+     * @return When the move after this game may be sent
+     * @throws IOException If the server closes the connection early or breaks the protocol
+     */
+    private long game(Socket socket, SplittableRandom random, long nextMove) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        byte[] frame = new byte[2];
+
+        frame[0] = (byte) Protocol.HELLO;
+        frame[1] = (byte) Protocol.VERSION;
+        out.write(frame);
+        out.write(variant);
+        if (in.readUnsignedByte() != Protocol.HELLO || in.readUnsignedByte() < Protocol.VERSION_VARIANTS)
+            throw new IOException("Server does not play variants");
+        // The server may have fallen back to the classic board
+        int columns = in.readUnsignedByte(), rows = in.readUnsignedByte();
+        in.readUnsignedByte();
+        expect(in.readUnsignedByte(), Protocol.OP_PLAYER);
+        boolean myTurn = in.readByte() == 0;
+
+        int[] heights = new int[columns];
+        for (int ply = 0; ply < columns * rows; ply++) {
+            if (!myTurn) {
+                // Opponent's move, possibly announced as a win first
+                int op = in.readUnsignedByte(), value = in.readByte();
+                boolean lost = op == Protocol.OP_STATUS && value == Protocol.WIN;
+                if (lost) {
+                    op = in.readUnsignedByte();
+                    value = in.readByte();
+                }
+                expect(op, Protocol.OP_MOVE);
+                heights[value - 1]++;
+                if (lost) {
+                    quit(out, frame); // The loser is asked for the next input
+                    return nextMove;
+                }
+            } else {
+                if (moveInterval > 0) {
+                    sleep(nextMove - System.nanoTime());
+                    nextMove = Math.max(nextMove + moveInterval, System.nanoTime() - moveInterval);
+                }
+                int column = pick(heights, rows, ply, random);
+                frame[0] = Protocol.OP_MOVE;
+                frame[1] = (byte) column;
+                long sent = System.nanoTime();
+                out.write(frame);
+                expect(in.readUnsignedByte(), Protocol.OP_STATUS);
+                int status = in.readByte();
+                roundTrip.record(System.nanoTime() - sent);
+                moves.increment();
+                if (status == Protocol.INVALID)
+                    throw new IOException("Server rejected column " + column);
+                heights[column - 1]++;
+                if (status == Protocol.WIN)
+                    return nextMove; // Hang up, the loser ends the session
+            }
+            myTurn = !myTurn;
+        }
+
+        // Draw, whoever would move next ends the session
+        if (myTurn)
+            quit(out, frame);
+        return nextMove;
+    }
+
+    /**
+     * @param heights Pieces per column
+     * @param rows    Pieces a column holds
+     * @param ply     Moves played so far
+     * @param random  Moves of this client
+     * @return The scripted column if there is one and it fits, else a random column with room, 1 based
+     */
+    private int pick(int[] heights, int rows, int ply, SplittableRandom random) {
+        if (ply < script.length()) {
+            int c = script.charAt(ply) - '0';
+            if (c >= 1 && c <= heights.length && heights[c - 1] < rows)
+                return c;
+        }
+        int c;
+        do {
+            c = random.nextInt(heights.length);
+        } while (heights[c] == rows);
+        return c + 1;
+    }
+
+    /**
+     * @param variant Columns, rows and pieces in a row as {@code 9x7x5}
+     * @return The three bytes following the version in the hello
+     */
+    private static byte[] parseVariant(String variant) {
+        String[] parts = variant.split("x");
+        if (parts.length != 3)
+            throw new IllegalArgumentException("Expected --variant=COLUMNSxROWSxCONNECT but got " + variant);
+        byte[] bytes = new byte[3];
+        for (int i = 0; i < 3; i++)
+            bytes[i] = (byte) Integer.parseInt(parts[i]);
+        return bytes;
+    }
+
+    /**
+     * Ends the session, sent by the client the server expects the next input from
+     *
+     * @param out   Server connection
+     * @param frame Scratch frame
+     * @throws IOException If the server left
+     */
+    private static void quit(DataOutputStream out, byte[] frame) throws IOException {
+        frame[0] = Protocol.OP_QUIT;
+        frame[1] = 0;
+        out.write(frame);
+    }
+
+    /**
+     * @param op       Opcode read
+     * @param expected Opcode the protocol demands here
+     * @throws IOException If they differ
+     */
+    private static void expect(int op, int expected) throws IOException {
+        if (op != expected)
+            throw new IOException("Expected opcode " + expected + " but got " + op);
+    }
+
+    /**
+     * @param nanos Time to sleep, nothing if not positive
+     */
+    private static void sleep(long nanos) {
+        if (nanos > 0)
+            try {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+    }
+
+    /**
+     * @param percentile Percentile between 0 and 100
+     * @return Round trip of the percentile in microseconds
+     */
+    private long micros(double percentile) {
+        return TimeUnit.NANOSECONDS.toMicros(roundTrip.percentile(percentile));
+    }
+
+    /**
+     * Starts a server JVM on the configured ports and waits until it answers
+     *
+     * @param mode Server mode
+     * @return The server process
+     * @throws Exception If the server does not come up
+     */
+    private Process startServer(String mode) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process server = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "core.Connect4Server",
+                "--mode=" + mode, "--port=" + port, "--metrics-port=" + metricsPort, "--log=warn",
+                "--match-timeout=0").redirectErrorStream(true).start();
+
+        // Drain the console so the server never blocks on it
+        Thread drain = new Thread(() -> {
+            try (BufferedReader r = new BufferedReader(new InputStreamReader(server.getInputStream()))) {
+                String line;
+                while ((line = r.readLine()) != null)
+                    System.out.println("server: " + line);
+            } catch (IOException e) {
+                // Server is gone
+            }
+        });
+        drain.setDaemon(true);
+        drain.start();
+
+        for (int i = 0; i < 100; i++) {
+            if (!server.isAlive())
+                throw new IllegalStateException("Server exited with " + server.exitValue());
+            if (!scrape().isEmpty())
+                return server;
+            Thread.sleep(100);
+        }
+        server.destroy();
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    /**
+     * Reads the server's metrics endpoint
+     *
+     * @return Every metric without labels by name, empty if the endpoint cannot be reached
+     */
+    private Map<String, Long> scrape() {
+        Map<String, Long> stats = new HashMap<>();
+        try (InputStream in = new URL("http://localhost:" + metricsPort + "/metrics").openStream()) {
+            BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = r.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space > 0 && line.indexOf('{') < 0)
+                    stats.put(line.substring(0, space), Long.parseLong(line.substring(space + 1)));
+            }
+        } catch (IOException | NumberFormatException e) {
+            stats.clear();
+        }
+        return stats;
+    }
+
+    /**
+     * @param stats Scraped metrics
+     * @param name  Metric name
+     * @param unit  Divisor of the value
+     * @return The value in {@code unit}s, "-" if the server did not report it
+     */
+    private static String stat(Map<String, Long> stats, String name, long unit) {
+        Long value = stats.get(name);
+        return value == null ? "-" : Long.toString(value / unit);
+    }
+
+    /**
+     * @return Virtual threads where the JVM has them, so thousands of clients fit, else a thread per client
+     */
+    private static ExecutorService clientExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
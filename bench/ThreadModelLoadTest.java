@@ -0,0 +1,196 @@
+package bench;
+
+import core.Connect4Server;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Compares memory per session and session capacity of the server thread models
+ * <p>
+ * Every mode runs in its own server JVM. This process opens idle game sessions
+ * against it (two sockets that read their player and then wait) and asks the
+ * server for its heap and thread count through stdin/stdout. The server's own
+ * console output is drained on a separate thread so it can never block.
+ * Bytes per session count heap only, the stack of a platform thread comes on
+ * top of it outside the heap.
+ * <p>
+ * {@code java bench.ThreadModelLoadTest [sessions] [max sessions] [modes...]},
+ * by default 1000 sessions, a capacity probe up to 10000 and every mode.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+public class ThreadModelLoadTest {
+    private static final int BASE_PORT = 18082;
+
+    /**
+     * The entry point of application.
+     *
+     * @param args Sessions to measure, most sessions to probe capacity with and the modes to test
+     * @throws Exception If a server cannot be started
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--server")) {
+            serve(args[1], Integer.parseInt(args[2]));
+            return;
+        }
+
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int max = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        String[] modes = args.length > 2 ? Arrays.copyOfRange(args, 2, args.length) : new String[]{"thread", "virtual", "nio"};
+
+        System.out.printf("%-8s %14s %16s %10s%n", "mode", "bytes/session", "threads/session", "capacity");
+        for (int i = 0; i < modes.length; i++)
+            measure(modes[i], BASE_PORT + i, sessions, max);
+    }
+
+    /**
+     * Measures one mode in a fresh server JVM
+     *
+     * @param mode     Server mode
+     * @param port     Port for the server
+     * @param sessions Sessions to measure memory with
+     * @param max      Most sessions to probe capacity with
+     * @throws Exception If the server cannot be started
+     */
+    private static void measure(String mode, int port, int sessions, int max) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process server = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ThreadModelLoadTest.class.getName(), "--server", mode, Integer.toString(port))
+                .redirectErrorStream(true).start();
+        PrintWriter toServer = new PrintWriter(server.getOutputStream(), true);
+        BlockingQueue<String> fromServer = new LinkedBlockingQueue<>();
+        Thread drain = new Thread(() -> {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(server.getInputStream()))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith("stats "))
+                        fromServer.add(line);
+                }
+            } catch (IOException e) {
+                // Server is gone, same as end of stream
+            }
+            fromServer.add("exit");
+        });
+        drain.setDaemon(true);
+        drain.start();
+
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            long[] before = stats(toServer, fromServer);
+            if (before == null) {
+                System.out.printf("%-8s %14s %16s %10s%n", mode, "unavailable", "", "");
+                return;
+            }
+
+            open(port, sessions, sockets);
+            long[] after = stats(toServer, fromServer);
+            double bytes = (double) (after[0] - before[0]) / sessions;
+            double threads = (double) (after[1] - before[1]) / sessions;
+
+            // Keep adding sessions until the server or this process runs out of something
+            int capacity = sessions;
+            try {
+                while (capacity < max) {
+                    int step = Math.min(1000, max - capacity);
+                    open(port, step, sockets);
+                    capacity += step;
+                }
+            } catch (IOException | OutOfMemoryError e) {
+                capacity = sockets.size() / 2;
+            }
+            System.out.printf("%-8s %14.0f %16.2f %10s%n", mode, bytes, threads, capacity >= max ? ">= " + max : capacity);
+        } finally {
+            for (Socket s : sockets)
+                s.close();
+            server.destroy();
+        }
+    }
+
+    /**
+     * Opens idle sessions, two sockets each that read the player they play as
+     *
+     * @param port     Server port
+     * @param sessions Sessions to open
+     * @param sockets  Receives the opened sockets
+     * @throws IOException If a connection fails
+     */
+    private static void open(int port, int sessions, List<Socket> sockets) throws IOException {
+        for (int i = 0; i < sessions; i++) {
+            Socket first = new Socket("localhost", port);
+            Socket second = new Socket("localhost", port);
+            sockets.add(first);
+            sockets.add(second);
+            new DataInputStream(first.getInputStream()).readUTF();
+            new DataInputStream(second.getInputStream()).readUTF();
+        }
+    }
+
+    /**
+     * Asks the server JVM for its heap and thread count
+     *
+     * @param toServer   Server stdin
+     * @param fromServer Stats lines of the server stdout, "exit" once it ended
+     * @return Used heap bytes and live threads, null if the server exited
+     * @throws InterruptedException If interrupted while waiting for the answer
+     */
+    private static long[] stats(PrintWriter toServer, BlockingQueue<String> fromServer) throws InterruptedException {
+        toServer.println("stats");
+        String line = fromServer.take();
+        if (!line.startsWith("stats ")) {
+            fromServer.add(line);
+            return null;
+        }
+        String[] parts = line.split(" ");
+        return new long[]{Long.parseLong(parts[1]), Long.parseLong(parts[2])};
+    }
+
+    /**
+     * Server side, runs {@link Connect4Server} and answers every "stats" line on stdin
+     *
+     * @param mode Server mode
+     * @param port Server port
+     * @throws IOException If stdin cannot be read
+     */
+    private static void serve(String mode, int port) throws IOException {
+        Thread server = new Thread(() -> {
+            try {
+                Connect4Server.main(new String[]{"--mode=" + mode, "--port=" + port});
+            } catch (Exception e) {
+                System.out.println("Server failed: " + e.getMessage());
+                System.exit(1);
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while ((line = in.readLine()) != null) {
+            // Let the server bind or fail before the first answer
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                return;
+            }
+            Runtime rt = Runtime.getRuntime();
+            System.gc();
+            System.gc();
+            long heap = rt.totalMemory() - rt.freeMemory();
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            System.out.println("stats " + heap + " " + threads);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package bench;
+
+import core.Connect4;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the game engine on the fixed {@link Positions}
+ * <p>
+ * {@code ./gradlew :benchmarks:jmh}
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EngineBenchmark {
+    // Longest fixed sequence, replayed move by move by update()
+    private static final String[] REPLAY = split(Positions.MOVES[Positions.MOVES.length - 1]);
+    private static final int[] REPLAY_COLUMNS = columns(REPLAY);
+
+    @Param({"0", "1", "2", "3"})
+    public int position;
+
+    private Connect4 game;
+    private Connect4 replay;
+    private SplittableRandom random;
+    private final String[] columns = split("1234567");
+
+    @Setup
+    public void setup() {
+        game = Positions.game(position);
+        replay = new Connect4();
+        random = new SplittableRandom(42);
+    }
+
+    /**
+     * One {@code update} of the replayed sequence, including the reset every sequence starts with
+     */
+    @Benchmark
+    @OperationsPerInvocation(21)
+    public boolean update() {
+        replay.initBoard();
+        boolean ok = true;
+        for (String move : REPLAY)
+            ok &= replay.update(move);
+        return ok;
+    }
+
+    /**
+     * Same replay through the primitive {@code update(int)}, no parsing and no allocation
+     */
+    @Benchmark
+    @OperationsPerInvocation(21)
+    public int updateColumn() {
+        replay.initBoard();
+        int status = 0;
+        for (int column : REPLAY_COLUMNS)
+            status |= replay.update(column);
+        return status;
+    }
+
+    @Benchmark
+    public boolean checkWin() {
+        return game.checkWin();
+    }
+
+    @Benchmark
+    public String getBoard() {
+        return game.getBoard();
+    }
+
+    /**
+     * A random game from the position to its end, the throughput of the engine a playout search would see
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void randomPlayout(Blackhole bh) {
+        Connect4 g = Positions.game(position);
+        int left = g.getColumnBoardSize() * g.getRowBoardSize() - Positions.MOVES[position].length();
+        while (left > 0) {
+            if (!g.update(columns[random.nextInt(columns.length)]))
+                continue;
+            left--;
+            if (g.checkLastMoveWin())
+                break;
+        }
+        bh.consume(g);
+    }
+
+    /**
+     * @param moves Moves as strings
+     * @return The moves as 1 based columns
+     */
+    private static int[] columns(String[] moves) {
+        int[] out = new int[moves.length];
+        for (int i = 0; i < out.length; i++)
+            out[i] = Integer.parseInt(moves[i]);
+        return out;
+    }
+
+    /**
+     * @param moves Moves as 1 based columns
+     * @return Every move as its own string, so parsing is measured but not substring allocation
+     */
+    private static String[] split(String moves) {
+        String[] out = new String[moves.length()];
+        for (int i = 0; i < out.length; i++)
+            out[i] = String.valueOf(moves.charAt(i));
+        return out;
+    }
+}
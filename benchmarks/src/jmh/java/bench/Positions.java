@@ -0,0 +1,46 @@
+package bench;
+
+import core.Connect4;
+
+/**
+ * Fixed positions every benchmark runs on, so results of two builds are comparable
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+final class Positions {
+    /**
+     * Move sequences as 1 based columns: empty board, opening, middle game and a crowded board.
+     * None of them is won, {@code @Param} values index into this array.
+     */
+    static final String[] MOVES = {
+            "",
+            "4453",
+            "443542253364",
+            "444433355521166227717"
+    };
+
+    private Positions() {
+    }
+
+    /**
+     * @param index Index into {@link #MOVES}
+     * @return A game with the moves of position {@code index} played
+     */
+    static Connect4 game(int index) {
+        Connect4 game = new Connect4();
+        play(game, MOVES[index]);
+        return game;
+    }
+
+    /**
+     * @param game  Game to play on
+     * @param moves Moves as 1 based columns
+     */
+    static void play(Connect4 game, String moves) {
+        for (int i = 0; i < moves.length(); i++) {
+            if (!game.update(String.valueOf(moves.charAt(i))))
+                throw new IllegalStateException("Illegal move " + moves.charAt(i) + " in " + moves);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package bench;
+
+import core.Connect4;
+import core.Connect4ComputerPlayer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AI search speed on the fixed {@link Positions}, with one to eight search threads
+ * <p>
+ * {@link #search(Nodes)} gives every search a fixed node budget, shared by
+ * its threads, and a fresh transposition table, so a run does the same work
+ * each time and the {@code nodes} counter reports nodes per second.
+ * {@link #depth(Plies)} gives every search a fixed time instead, its
+ * {@code plies} counter over its searches per second is the average depth
+ * reached in that time, which is where more threads pay off.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SearchBenchmark {
+    private static final long NODE_BUDGET = 200_000;
+    private static final long TIME_BUDGET = 60_000; // Far above the node budget, only there as a safety net
+    private static final int TABLE_SIZE = 4;
+    private static final long DEPTH_TIME_BUDGET = 100;
+
+    @Param({"0", "1", "2", "3"})
+    public int position;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private Connect4 game;
+    private Connect4ComputerPlayer ai, timed;
+
+    /**
+     * Searched nodes, reported by JMH as a rate next to the searches per second
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Nodes {
+        public long nodes;
+    }
+
+    /**
+     * Depth reached, reported by JMH as a rate next to the searches per second
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Plies {
+        public long plies;
+    }
+
+    @Setup
+    public void setup() {
+        game = Positions.game(position);
+    }
+
+    @Setup(Level.Invocation)
+    public void newPlayer() {
+        ai = new Connect4ComputerPlayer(TIME_BUDGET, NODE_BUDGET, TABLE_SIZE, threads);
+        ai.setOpeningBook(null);
+        timed = new Connect4ComputerPlayer(DEPTH_TIME_BUDGET, Long.MAX_VALUE, TABLE_SIZE, threads);
+        timed.setOpeningBook(null);
+    }
+
+    @TearDown(Level.Invocation)
+    public void shutdown() {
+        ai.shutdown();
+        timed.shutdown();
+    }
+
+    @Benchmark
+    public String search(Nodes counter) {
+        String move = ai.generate(game);
+        counter.nodes += ai.getNodes();
+        return move;
+    }
+
+    @Benchmark
+    public String depth(Plies counter) {
+        String move = timed.generate(game);
+        counter.plies += timed.getDepth();
+        return move;
+    }
+}
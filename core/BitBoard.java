@@ -0,0 +1,260 @@
+package core;
+
+/**
+ * Bitboard representation of a Connect 4 position
+ * <p>
+ * Every player owns one {@code long} mask. Cell (row, column) maps to bit
+ * {@code column * (height + 1) + row}, the spare bit on top of every column
+ * keeps shifted lines from wrapping into the neighbouring column. Only
+ * boards of up to 63 such bits fit, the last bit of a key is the player to
+ * move, {@link WideBoard} takes larger ones.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+final class BitBoard implements Board {
+    private final int width, height, stride, connect;
+    private final long[] pieces = new long[2];
+    private final int[] heights;
+    private int moves;
+
+    /**
+     * Instantiates an empty board
+     *
+     * @param width   The amount of columns
+     * @param height  The amount of rows
+     * @param connect Pieces in a row that win
+     */
+    BitBoard(int width, int height, int connect) {
+        if (width * (height + 1) >= Long.SIZE)
+            throw new IllegalArgumentException("Board does not fit in 63 bits: " + width + "x" + height);
+        this.width = width;
+        this.height = height;
+        this.stride = height + 1;
+        this.connect = connect;
+        this.heights = new int[width];
+    }
+
+    /**
+     * Instantiates a board holding the given pieces, heights and move count follow from them
+     *
+     * @param width   The amount of columns
+     * @param height  The amount of rows
+     * @param connect Pieces in a row that win
+     * @param pieces0 Piece mask of player 0
+     * @param pieces1 Piece mask of player 1
+     */
+    BitBoard(int width, int height, int connect, long pieces0, long pieces1) {
+        this(width, height, connect);
+        pieces[0] = pieces0;
+        pieces[1] = pieces1;
+        long both = pieces0 | pieces1;
+        for (int c = 0; c < width; c++)
+            heights[c] = Long.bitCount((both >>> (c * stride)) & ((1L << height) - 1));
+        moves = Long.bitCount(both);
+    }
+
+    /**
+     * Instantiates a copy of {@code other}
+     *
+     * @param other The board to copy
+     */
+    BitBoard(BitBoard other) {
+        this.width = other.width;
+        this.height = other.height;
+        this.stride = other.stride;
+        this.connect = other.connect;
+        this.heights = other.heights.clone();
+        this.pieces[0] = other.pieces[0];
+        this.pieces[1] = other.pieces[1];
+        this.moves = other.moves;
+    }
+
+    @Override
+    public Board copy() {
+        return new BitBoard(this);
+    }
+
+    @Override
+    public void clear() {
+        pieces[0] = 0;
+        pieces[1] = 0;
+        moves = 0;
+        for (int c = 0; c < width; c++)
+            heights[c] = 0;
+    }
+
+    @Override
+    public boolean canPlay(int c) {
+        return heights[c] < height;
+    }
+
+    @Override
+    public int play(int c, int player) {
+        int r = heights[c]++;
+        pieces[player] |= 1L << (c * stride + r);
+        moves++;
+        return r;
+    }
+
+    @Override
+    public void undo(int c, int player) {
+        int r = --heights[c];
+        pieces[player] &= ~(1L << (c * stride + r));
+        moves--;
+    }
+
+    @Override
+    public int cell(int r, int c) {
+        long bit = 1L << (c * stride + r);
+        if ((pieces[0] & bit) != 0)
+            return 0;
+        if ((pieces[1] & bit) != 0)
+            return 1;
+        return -1;
+    }
+
+    @Override
+    public boolean isWin(int player) {
+        long m = pieces[player];
+        // Vertical, horizontal, diagonal up, diagonal down
+        return aligned(m, 1) || aligned(m, stride) || aligned(m, stride + 1) || aligned(m, stride - 1);
+    }
+
+    @Override
+    public boolean isWinAt(int r, int c) {
+        int owner = cell(r, c);
+        if (owner < 0)
+            return false;
+
+        return isWinAt(pieces[owner], c * stride + r, stride, connect);
+    }
+
+    /**
+     * Checks the lines through one piece of a mask, for callers that keep masks of their own
+     *
+     * @param m       Piece mask of the player who owns the piece
+     * @param pos     Bit of the piece
+     * @param stride  Bits per column, the height plus the spare row
+     * @param connect Pieces in a row that win
+     * @return boolean if a line through {@code pos} holds {@code connect} pieces
+     */
+    static boolean isWinAt(long m, int pos, int stride, int connect) {
+        return run(m, pos, 1, connect) || run(m, pos, stride, connect)
+                || run(m, pos, stride + 1, connect) || run(m, pos, stride - 1, connect);
+    }
+
+    /**
+     * Counts pieces on both sides of {@code pos}, the spare row stops a walk from crossing columns
+     *
+     * @param m       Piece mask
+     * @param pos     Bit of the piece just played
+     * @param shift   Bit distance between two neighbouring cells of a line
+     * @param connect Pieces in a row that win
+     * @return boolean if the line along {@code shift} through {@code pos} holds {@code connect} pieces
+     */
+    private static boolean run(long m, int pos, int shift, int connect) {
+        int count = 1;
+        for (int k = pos - shift; k >= 0 && ((m >>> k) & 1) != 0 && count < connect; k -= shift)
+            count++;
+        for (int k = pos + shift; k < Long.SIZE && ((m >>> k) & 1) != 0 && count < connect; k += shift)
+            count++;
+        return count >= connect;
+    }
+
+    /**
+     * Doubles the run length per step, four in a row takes two shifts
+     *
+     * @param m     Piece mask
+     * @param shift Bit distance between two neighbouring cells of a line
+     * @return boolean if {@code m} contains {@code connect} consecutive cells along {@code shift}
+     */
+    private boolean aligned(long m, int shift) {
+        if ((connect - 1) * shift >= Long.SIZE)
+            return false; // No line of this direction fits, and Java would shift by the amount mod 64
+        int len = 1;
+        while (len * 2 <= connect) {
+            m &= m >>> (len * shift);
+            len *= 2;
+        }
+        // Runs of len overlapping by less than len make up the rest
+        if (len < connect)
+            m &= m >>> ((connect - len) * shift);
+        return m != 0;
+    }
+
+    /**
+     * Unique key of the position, {@code pieces + mask} of player 0 separates every
+     * column height and the top bit holds the player to move
+     *
+     * @param player Player index to move
+     * @return Position key
+     */
+    @Override
+    public long key(int player) {
+        return key(pieces[0], pieces[1], player);
+    }
+
+    /**
+     * Key of the position reflected left to right, equal positions have equal mirrored keys
+     *
+     * @param player Player index to move
+     * @return Mirrored position key
+     */
+    @Override
+    public long mirrorKey(int player) {
+        long column = (1L << stride) - 1, m0 = 0, m1 = 0;
+        for (int c = 0; c < width; c++) {
+            int to = (width - 1 - c) * stride;
+            m0 |= ((pieces[0] >>> (c * stride)) & column) << to;
+            m1 |= ((pieces[1] >>> (c * stride)) & column) << to;
+        }
+        return key(m0, m1, player);
+    }
+
+    /**
+     * @param p0     Piece mask of player 0
+     * @param p1     Piece mask of player 1
+     * @param player Player index to move
+     * @return Position key
+     */
+    private static long key(long p0, long p1, int player) {
+        return (p0 + (p0 | p1)) ^ ((long) player << 63);
+    }
+
+    @Override
+    public int weigh(int player, int[] weights) {
+        long m = pieces[player];
+        int sum = 0;
+        while (m != 0) {
+            sum += weights[Long.numberOfTrailingZeros(m)];
+            m &= m - 1;
+        }
+        return sum;
+    }
+
+    @Override
+    public int getHeight(int c) {
+        return heights[c];
+    }
+
+    @Override
+    public int getMoves() {
+        return moves;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getConnect() {
+        return connect;
+    }
+}
@@ -0,0 +1,130 @@
+package core;
+
+/**
+ * Position of a Connect N game, two players dropping pieces into columns
+ * <p>
+ * Cell (row, column) maps to bit {@code column * (height + 1) + row} of each
+ * player's pieces in every backend, so per cell tables such as the AI's
+ * weights work with any of them. Boards that fit in 63 bits of a {@code long} use
+ * {@link BitBoard}, larger ones {@link WideBoard}.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+interface Board {
+    /**
+     * Creates the fastest board for the dimensions
+     *
+     * @param width   The amount of columns
+     * @param height  The amount of rows
+     * @param connect Pieces in a row that win
+     * @return An empty board
+     */
+    static Board create(int width, int height, int connect) {
+        if (width < 1 || height < 1 || connect < 2 || connect > Math.max(width, height))
+            throw new IllegalArgumentException("Invalid board " + width + "x" + height + " connect " + connect);
+        if (width * (height + 1) < Long.SIZE) // Bit 63 of a key is the player to move
+            return new BitBoard(width, height, connect);
+        return new WideBoard(width, height, connect);
+    }
+
+    /**
+     * @return A copy that can be played on without touching this board
+     */
+    Board copy();
+
+    /**
+     * Removes every piece from the board
+     */
+    void clear();
+
+    /**
+     * @param c Zero based column
+     * @return boolean if column {@code c} still has room for a piece
+     */
+    boolean canPlay(int c);
+
+    /**
+     * Drops a piece for {@code player} into column {@code c}, column must be playable
+     *
+     * @param c      Zero based column
+     * @param player Player index, 0 or 1
+     * @return The zero based row the piece landed on
+     */
+    int play(int c, int player);
+
+    /**
+     * Takes the top piece of column {@code c} back off the board
+     *
+     * @param c      Zero based column
+     * @param player Player index who owns the top piece
+     */
+    void undo(int c, int player);
+
+    /**
+     * @param r Zero based row
+     * @param c Zero based column
+     * @return Player index owning the cell, -1 if it is empty
+     */
+    int cell(int r, int c);
+
+    /**
+     * @param player Player index, 0 or 1
+     * @return boolean if {@code player} has {@link #getConnect()} in a row anywhere on the board
+     */
+    boolean isWin(int player);
+
+    /**
+     * Walks the lines through a single piece, cheaper than {@link #isWin(int)} after a move
+     *
+     * @param r Zero based row of the piece
+     * @param c Zero based column of the piece
+     * @return boolean if the owner of cell (r, c) has {@link #getConnect()} in a row through it
+     */
+    boolean isWinAt(int r, int c);
+
+    /**
+     * @param player Player index to move
+     * @return Key of the position, unique on {@link BitBoard}s and a 64 bit hash on larger boards
+     */
+    long key(int player);
+
+    /**
+     * @param player Player index to move
+     * @return Key of the position reflected left to right
+     */
+    long mirrorKey(int player);
+
+    /**
+     * @param player  Player index, 0 or 1
+     * @param weights Weight per bit, see the layout above
+     * @return Sum of the weights of the cells {@code player} owns
+     */
+    int weigh(int player, int[] weights);
+
+    /**
+     * @param c Zero based column
+     * @return The amount of pieces in column {@code c}
+     */
+    int getHeight(int c);
+
+    /**
+     * @return The amount of pieces on the board
+     */
+    int getMoves();
+
+    /**
+     * @return The amount of columns
+     */
+    int getWidth();
+
+    /**
+     * @return The amount of rows
+     */
+    int getHeight();
+
+    /**
+     * @return Pieces in a row that win
+     */
+    int getConnect();
+}
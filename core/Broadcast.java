@@ -0,0 +1,159 @@
+package core;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Events of one live game for its spectators
+ * <p>
+ * The game thread is the only writer, it publishes every event once into a
+ * ring and keeps the moves of the current game. Spectators read with
+ * optimistic {@link StampedLock} reads, so however many watch, the game
+ * thread pays one uncontended lock per event and never waits for them. A
+ * reader the ring has lapped takes a snapshot of the current game instead
+ * and continues from the latest event.
+ * <p>
+ * Events are {@link Protocol} frames: {@link Protocol#OP_MOVE} with the
+ * column, {@link Protocol#OP_STATUS} {@link Protocol#WIN} after a winning
+ * move, {@link Protocol#OP_RESET} with the player to move next and
+ * {@link Protocol#OP_QUIT} once the game is over for good.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+final class Broadcast {
+    // Events kept, a spectator further behind gets a snapshot
+    private static final int CAPACITY = 64;
+
+    final int id;
+    final Variant variant;
+
+    private final StampedLock lock = new StampedLock();
+    private final short[] ring = new short[CAPACITY];
+    private long published;
+
+    // Current game, moves are 1 based columns and alternate starting with firstPlayer
+    private final byte[] moves;
+    private int moveCount;
+    private int firstPlayer;
+    private boolean ended;
+
+    /**
+     * Instantiates the broadcast of a game that has not started yet
+     *
+     * @param id      Id spectators ask for
+     * @param variant Board of the game
+     */
+    Broadcast(int id, Variant variant) {
+        this.id = id;
+        this.variant = variant;
+        this.moves = new byte[variant.columns * variant.rows];
+    }
+
+    /**
+     * @param column The column played (1 based)
+     */
+    void move(int column) {
+        long stamp = lock.writeLock();
+        moves[moveCount++] = (byte) column;
+        publish(Protocol.OP_MOVE, column);
+        lock.unlockWrite(stamp);
+    }
+
+    /**
+     * The last move won the game
+     */
+    void win() {
+        long stamp = lock.writeLock();
+        publish(Protocol.OP_STATUS, Protocol.WIN);
+        lock.unlockWrite(stamp);
+    }
+
+    /**
+     * @param player Player index to move first in the new game
+     */
+    void reset(int player) {
+        long stamp = lock.writeLock();
+        moveCount = 0;
+        firstPlayer = player;
+        publish(Protocol.OP_RESET, player);
+        lock.unlockWrite(stamp);
+    }
+
+    /**
+     * The session ended, no more events follow
+     */
+    void end() {
+        long stamp = lock.writeLock();
+        if (!ended) {
+            ended = true;
+            publish(Protocol.OP_QUIT, 0);
+        }
+        lock.unlockWrite(stamp);
+    }
+
+    /**
+     * @param op    Opcode
+     * @param value Column, status or player index
+     */
+    private void publish(int op, int value) {
+        ring[(int) (published & (CAPACITY - 1))] = (short) (op << 8 | (value & 0xFF));
+        published++;
+    }
+
+    /**
+     * Copies the events from {@code from} on
+     *
+     * @param from   Sequence number of the first event wanted
+     * @param events Filled with {@code op << 8 | value} per event, unsigned value
+     * @return Events copied, -1 if the ring no longer holds event {@code from}
+     */
+    int poll(long from, short[] events) {
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            long end = published;
+            if (end - from > CAPACITY) {
+                if (lock.validate(stamp))
+                    return -1;
+                continue;
+            }
+            int n = (int) Math.min(end - from, events.length);
+            for (int i = 0; i < n; i++)
+                events[i] = ring[(int) ((from + i) & (CAPACITY - 1))];
+            if (lock.validate(stamp))
+                return n;
+        }
+    }
+
+    /**
+     * Copies the current game
+     *
+     * @param into Filled with the moves so far, at least as long as the board has cells
+     * @return The sequence number to continue from in the upper bits, whether the session ended in bit 17,
+     * the player who moved first in bit 16 and the amount of moves in the lower 16 bits
+     */
+    long snapshot(byte[] into) {
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            long next = published;
+            int count = moveCount, first = firstPlayer;
+            boolean over = ended;
+            System.arraycopy(moves, 0, into, 0, count);
+            if (lock.validate(stamp))
+                return next << 18 | (over ? 1L << 17 : 0) | (long) first << 16 | count;
+        }
+    }
+
+    /**
+     * @return Sequence number of the next event
+     */
+    long getPublished() {
+        long stamp = lock.tryOptimisticRead();
+        long next = published;
+        if (lock.validate(stamp))
+            return next;
+        stamp = lock.readLock();
+        next = published;
+        lock.unlockRead(stamp);
+        return next;
+    }
+}
@@ -0,0 +1,203 @@
+package core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a cluster on one machine, for trying out the {@link Router} and graceful drains
+ * <p>
+ * Starts {@code --nodes} server processes with the same java and class path
+ * on consecutive ports from {@code --node-port}, their metrics endpoints on
+ * consecutive ports from {@code --node-metrics-port}, and the router on
+ * {@code --port} in this process. Any other option is handed to every node.
+ * Nodes drain for up to five minutes unless {@code --drain-timeout} says otherwise.
+ * Commands on standard input:
+ * <ul>
+ * <li>{@code status} lists the nodes with their load</li>
+ * <li>{@code add} starts one more node</li>
+ * <li>{@code drain N} sends node N a SIGTERM, it finishes its games and exits</li>
+ * <li>{@code quit} drains every node and exits</li>
+ * </ul>
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+public final class Cluster {
+    // Milliseconds a node gets to finish its games when it is drained
+    private static final long DRAIN_TIMEOUT = 300000;
+
+    private final String[] nodeArgs;
+    private final int nodePort, nodeMetricsPort;
+    private final List<Process> processes = new ArrayList<>();
+    private Router router;
+
+    /**
+     * @param nodeArgs        Options handed to every node
+     * @param nodePort        Game port of the first node
+     * @param nodeMetricsPort Metrics port of the first node
+     */
+    private Cluster(String[] nodeArgs, int nodePort, int nodeMetricsPort) {
+        this.nodeArgs = nodeArgs;
+        this.nodePort = nodePort;
+        this.nodeMetricsPort = nodeMetricsPort;
+    }
+
+    /**
+     * The entry point of the launcher
+     *
+     * @param args {@code --nodes=3}, {@code --port=8082}, {@code --node-port=9001}, {@code --node-metrics-port=9101},
+     *             anything else goes to the nodes
+     * @throws IOException If a node cannot be started
+     */
+    public static void main(String[] args) throws IOException {
+        int nodes = 3, port = 8082, nodePort = 9001, nodeMetricsPort = 9101;
+        List<String> rest = new ArrayList<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg : arg.substring(0, eq), value = arg.substring(eq + 1);
+            switch (name) {
+                case "--nodes":
+                    nodes = Integer.parseInt(value);
+                    break;
+                case "--port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "--node-port":
+                    nodePort = Integer.parseInt(value);
+                    break;
+                case "--node-metrics-port":
+                    nodeMetricsPort = Integer.parseInt(value);
+                    break;
+                default:
+                    rest.add(arg);
+            }
+        }
+
+        Cluster cluster = new Cluster(rest.toArray(new String[0]), nodePort, nodeMetricsPort);
+        Router.Node[] initial = new Router.Node[nodes];
+        for (int i = 0; i < nodes; i++)
+            initial[i] = cluster.start(i);
+        cluster.router = new Router(port, initial, 1.25, 200, 500);
+        Runtime.getRuntime().addShutdownHook(new Thread(cluster::stop, "connect4-cluster-stop"));
+        // Give the nodes a moment to bind before the first poll
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            return;
+        }
+        Thread routing = new Thread(cluster.router, "connect4-router");
+        routing.setDaemon(true);
+        routing.start();
+        cluster.console();
+    }
+
+    /**
+     * Starts node {@code i}
+     *
+     * @param i Index of the node, its ports are offset by it
+     * @return The node as the router sees it
+     * @throws IOException If the process cannot be started
+     */
+    private Router.Node start(int i) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("core.Connect4Server");
+        command.add("--port=" + (nodePort + i));
+        command.add("--metrics-port=" + (nodeMetricsPort + i));
+        command.add("--drain-timeout=" + DRAIN_TIMEOUT); // Later options win, a --drain-timeout of the caller too
+        command.addAll(List.of(nodeArgs));
+        synchronized (processes) {
+            processes.add(new ProcessBuilder(command).inheritIO().start());
+        }
+        Log.info("Started node " + i + " on " + (nodePort + i));
+        return new Router.Node("localhost", nodePort + i, nodeMetricsPort + i);
+    }
+
+    /**
+     * Reads commands until {@code quit}, or forever if standard input is closed
+     *
+     * @throws IOException If a node cannot be started
+     */
+    private void console() throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] words = line.trim().split("\\s+");
+            switch (words[0]) {
+                case "":
+                    break;
+                case "status":
+                    Router.Node[] nodes = router.getNodes();
+                    for (int i = 0; i < nodes.length; i++) {
+                        Router.Node n = nodes[i];
+                        System.out.println(i + " " + n + (n.up ? n.draining ? " draining" : " up" : " down")
+                                + ", " + n.games + " games routed, " + n.reported + " sessions reported");
+                    }
+                    break;
+                case "add":
+                    router.add(start(router.getNodes().length));
+                    break;
+                case "drain":
+                    drain(words);
+                    break;
+                case "quit":
+                    System.exit(0);
+                    break;
+                default:
+                    System.out.println("Commands: status, add, drain N, quit");
+            }
+        }
+        try {
+            Thread.currentThread().join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param words {@code drain} and the index of the node
+     */
+    private void drain(String[] words) {
+        int i;
+        try {
+            i = Integer.parseInt(words[1]);
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            System.out.println("Usage: drain N");
+            return;
+        }
+        synchronized (processes) {
+            if (i < 0 || i >= processes.size()) {
+                System.out.println("No node " + i);
+                return;
+            }
+            // SIGTERM, the node drains in its shutdown hook
+            processes.get(i).destroy();
+        }
+        Log.info("Draining node " + i);
+    }
+
+    /**
+     * Drains every node and waits for them to exit
+     */
+    private void stop() {
+        synchronized (processes) {
+            for (Process p : processes)
+                p.destroy();
+            for (Process p : processes) {
+                try {
+                    p.waitFor();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
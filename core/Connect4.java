@@ -1,30 +1,79 @@
 package core;
 
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Connect 4 game controller
+ * <p>
+ * Plays on any board size and any amount of pieces in a row, the classic 7 by
+ * 6 board with four in a row by default. Every move is kept on a stack, so
+ * moves can be taken back and replayed in constant time and a game can be
+ * exported as one character per move.
  *
  * @author Joshua Kronemeyer
  * @version 2.0
  * @date 3 /29/2019
  */
 public class Connect4 {
+    /**
+     * Results of {@link #update(int)}
+     */
+    public static final int OK = 0, OUT_OF_RANGE = 1, COLUMN_FULL = 2;
+
+    /**
+     * Dimensions of the classic game
+     */
+    public static final int DEFAULT_COLUMNS = 7, DEFAULT_ROWS = 6, DEFAULT_CONNECT = 4;
 
-    private final int COLUMN_MAX = 7;
-    private final int ROW_MAX = 6;
-    private final String[][] board;
+    private final int COLUMN_MAX;
+    private final int ROW_MAX;
+    private final int CONNECT;
+    private final String[] SYMBOLS = {"O", "X"};
+    private final Board board;
     private String p;
+    private int player;
     private int lastMoveC, lastMoveR;
 
+    // Moves played as column << 1 | player, entries from moveCount up to redoCount were taken back
+    private final int[] history;
+    private int moveCount, redoCount;
+
+    // ASCII rendering of the board, patched one cell per move, and the String of it handed out last
+    private final int LINE;
+    private final byte[] render;
+    private String rendered;
+
     /**
      * Instantiates a new Connect 4.
      */
     public Connect4() {
+        this(DEFAULT_COLUMNS, DEFAULT_ROWS, DEFAULT_CONNECT);
+    }
+
+    /**
+     * Instantiates a game of any size, boards of up to 63 cells including a spare row play on a single word bitboard
+     *
+     * @param columns The amount of columns
+     * @param rows    The amount of rows
+     * @param connect Pieces in a row that win
+     * @throws IllegalArgumentException If no line of {@code connect} fits the board
+     */
+    public Connect4(int columns, int rows, int connect) {
+        COLUMN_MAX = columns;
+        ROW_MAX = rows;
+        CONNECT = connect;
         p = "O";
+        player = 0;
         lastMoveC = 0;
         lastMoveR = 0;
-        board = new String[ROW_MAX][COLUMN_MAX];
+        board = Board.create(COLUMN_MAX, ROW_MAX, CONNECT);
+        history = new int[COLUMN_MAX * ROW_MAX];
+        LINE = 2 * COLUMN_MAX + 2;
+        render = new byte[LINE * (ROW_MAX + 1)];
+        initRender();
         initBoard();
 
     }
@@ -36,25 +85,136 @@ public class Connect4 {
      * @return Updated board / Error Message
      */
     public boolean update(String s) {
-        int in;
-        try {
-            in = Integer.parseInt(s);
-        } catch (Exception e) {
+        // Parsed by hand so malformed input is rejected without an exception, accepting what
+        // Integer.parseInt did: a leading '+' and leading zeros. A '-' never names a column.
+        if (s == null)
             return false;
+        int first = s.startsWith("+") ? 1 : 0;
+        if (s.length() == first)
+            return false;
+        int in = 0;
+        for (int i = first; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                return false;
+            in = Math.min(in * 10 + (c - '0'), COLUMN_MAX + 1); // Capped, out of range all the same
         }
 
+        return update(in) == OK;
+    }
+
+    /**
+     * Main game call without parsing, allocates nothing and never throws
+     *
+     * @param column The column the current player chose (1 based)
+     * @return {@link #OK}, {@link #OUT_OF_RANGE} or {@link #COLUMN_FULL}
+     */
+    public int update(int column) {
         // Prevent Array Out of Bounds
-        if (in > 0 && in < COLUMN_MAX + 1) {
+        if (column < 1 || column > COLUMN_MAX)
+            return OUT_OF_RANGE;
+        if (!addPiece(column))
+            return COLUMN_FULL;
 
-            if (!addPiece(in))
-                return false;
-            else
-                changePlayer();
+        redoCount = moveCount; // A new move replaces whatever was taken back
+        changePlayer();
+        return OK;
+    }
 
+    /**
+     * Takes back the last move in constant time, the player who made it is to move again
+     *
+     * @return The column of the move taken back (1 based), 0 if no move was played
+     */
+    public int unmake() {
+        if (moveCount == 0)
+            return 0;
 
-            return true;
+        int move = history[--moveCount];
+        int c = move >>> 1, r = board.getHeight(c) - 1;
+        board.undo(c, move & 1);
+        render[renderIndex(r, c)] = ' ';
+        rendered = null;
+        player = move & 1;
+        p = SYMBOLS[player];
+        if (moveCount > 0) {
+            lastMoveC = history[moveCount - 1] >>> 1;
+            lastMoveR = board.getHeight(lastMoveC) - 1;
+        } else {
+            lastMoveC = 0;
+            lastMoveR = 0;
         }
-        return false;
+        return c + 1;
+    }
+
+    /**
+     * Takes back the last move, it can be played again with {@link #redo()}
+     *
+     * @return boolean if there was a move to take back
+     */
+    public boolean undo() {
+        return unmake() != 0;
+    }
+
+    /**
+     * Plays the last move taken back again
+     *
+     * @return boolean if there was a move to play again
+     */
+    public boolean redo() {
+        if (moveCount == redoCount)
+            return false;
+
+        int keep = redoCount;
+        player = history[moveCount] & 1; // Restores the mover in case a win check switched players
+        update((history[moveCount] >>> 1) + 1);
+        redoCount = keep;
+        return true;
+    }
+
+    /**
+     * @return Moves on the board
+     */
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    /**
+     * @param ply Zero based move number, below {@link #getMoveCount()}
+     * @return The column of that move (1 based)
+     */
+    int getMove(int ply) {
+        return (history[ply] >>> 1) + 1;
+    }
+
+    /**
+     * Exports the moves played so far, one character per move: columns 1 to 9 as digits, then
+     * {@code a} for column 10 and so on up to {@code z} for column 35
+     *
+     * @return The move list, {@link #playMoves(CharSequence)} replays it
+     * @throws IllegalStateException If the board has more than 35 columns
+     */
+    public String exportMoves() {
+        if (COLUMN_MAX >= Character.MAX_RADIX)
+            throw new IllegalStateException("Columns past 35 have no character");
+        char[] moves = new char[moveCount];
+        for (int i = 0; i < moveCount; i++)
+            moves[i] = Character.forDigit((history[i] >>> 1) + 1, Character.MAX_RADIX);
+        return new String(moves);
+    }
+
+    /**
+     * Plays a move list as {@link #exportMoves()} writes it
+     *
+     * @param moves One character per move
+     * @return boolean if every move was played, playing stops at the first invalid one
+     */
+    public boolean playMoves(CharSequence moves) {
+        for (int i = 0; i < moves.length(); i++) {
+            if (update(Character.digit(moves.charAt(i), Character.MAX_RADIX)) != OK)
+                return false;
+        }
+        return true;
     }
 
     /**
@@ -66,6 +226,31 @@ public class Connect4 {
         return p;
     }
 
+    /**
+     * Gets current player as an index, 0 for O and 1 for X
+     *
+     * @return the current player index
+     */
+    public int getPlayerIndex() {
+        return player;
+    }
+
+    /**
+     * Copies the bitboard so searches can play moves without touching the game
+     *
+     * @return A copy of the board
+     */
+    Board copyBoard() {
+        return board.copy();
+    }
+
+    /**
+     * @return boolean if every column is full
+     */
+    boolean isBoardFull() {
+        return board.getMoves() == COLUMN_MAX * ROW_MAX;
+    }
+
     /**
      * Gets previous players last move by Row
      *
@@ -93,6 +278,15 @@ public class Connect4 {
         return ROW_MAX;
     }
 
+    /**
+     * Gets {@code CONNECT}
+     *
+     * @return Pieces in a row that win
+     */
+    public int getConnect() {
+        return CONNECT;
+    }
+
     /**
      * Gets previous players last move by Column
      *
@@ -104,25 +298,56 @@ public class Connect4 {
 
     /**
      * Gets board.
+     * The same String is returned until the board changes.
      *
      * @return the board
      */
     public String getBoard() {
-        StringBuilder builder = new StringBuilder();
-        builder.append(" ");
-        for (int i = 0; i < COLUMN_MAX; i++) {
-            builder.append(i + 1 + " ");
+        if (rendered == null)
+            rendered = new String(render, StandardCharsets.ISO_8859_1);
+        return rendered;
+    }
 
+    /**
+     * Writes the board as {@link #getBoard()} renders it without building a String
+     *
+     * @param out Where to write, print streams get the bytes in one write
+     * @throws IOException If {@code out} fails
+     */
+    public void writeBoard(Appendable out) throws IOException {
+        if (out instanceof PrintStream) {
+            ((PrintStream) out).write(render, 0, render.length);
+            return;
         }
-        builder.append(("\n"));
-        for (int i = ROW_MAX - 1; i > -1; i--) {
-            builder.append("|");
-            for (int j = 0; j < COLUMN_MAX; j++) {
-                builder.append((board[i][j] + "|"));
-            }
-            builder.append("\n");
-        }
-        return builder.toString();
+        for (byte b : render)
+            out.append((char) b);
+    }
+
+    /**
+     * Writes the board as {@link #getBoard()} renders it, one ASCII byte per character
+     *
+     * @param out Buffer with at least {@link #getBoardLength()} bytes remaining
+     */
+    public void writeBoard(ByteBuffer out) {
+        out.put(render);
+    }
+
+    /**
+     * @return Characters of the rendered board
+     */
+    public int getBoardLength() {
+        return render.length;
+    }
+
+    /**
+     * Gets a cell without rendering the board
+     *
+     * @param row    Row, 1 is the bottom
+     * @param column Column, 1 is the left
+     * @return -1 if empty, else the index of the player owning it (see {@link #getPlayerIndex()})
+     */
+    public int getCell(int row, int column) {
+        return board.cell(row - 1, column - 1);
     }
 
     /**
@@ -131,28 +356,55 @@ public class Connect4 {
      * @return the non current player
      */
     public String getNonCurrentPlayer() {
-            if (p.equals("O"))
-                return "X";
-            else
-                return "O";
+        return SYMBOLS[1 - player];
     }
     /**
      * Changes the value of {@code p}
      */
     private void changePlayer() {
-        if (p.equals("O"))
-            p = "X";
-        else
-            p = "O";
-
+        player = 1 - player;
+        p = SYMBOLS[player];
     }
 
     /**
      * Init board.
+     * Clears the move history without reallocating anything.
      */
     public void initBoard() {
-        for (String[] row : board)
-            Arrays.fill(row, " ");
+        board.clear();
+        moveCount = 0;
+        redoCount = 0;
+        for (int r = 0; r < ROW_MAX; r++)
+            for (int c = 0; c < COLUMN_MAX; c++)
+                render[renderIndex(r, c)] = ' ';
+        rendered = null;
+    }
+
+    /**
+     * Lays out the column numbers and cell borders, the cells are filled by {@link #initBoard()}.
+     * Columns past 9 show their last digit so every cell keeps its width.
+     */
+    private void initRender() {
+        render[0] = ' ';
+        for (int c = 0; c < COLUMN_MAX; c++) {
+            render[1 + 2 * c] = (byte) ('0' + (c + 1) % 10);
+            render[2 + 2 * c] = ' ';
+        }
+        render[LINE - 1] = '\n';
+        for (int line = 1; line <= ROW_MAX; line++) {
+            for (int i = 0; i < LINE - 1; i += 2)
+                render[line * LINE + i] = '|';
+            render[line * LINE + LINE - 1] = '\n';
+        }
+    }
+
+    /**
+     * @param r Zero based row, 0 is the bottom
+     * @param c Zero based column
+     * @return Index of the cell in the rendered board, the top row is rendered first
+     */
+    private int renderIndex(int r, int c) {
+        return (ROW_MAX - r) * LINE + 1 + 2 * c;
     }
 
     /**
@@ -160,58 +412,44 @@ public class Connect4 {
      * @return boolean if the piece was successfully added to our matrix
      */
     private boolean addPiece(int c) {
-        for (int i = 0; i < ROW_MAX; i++) {
-            if (board[i][c - 1].contains(" ")) {
-                board[i][c - 1] = p;
-                lastMoveR = i;
-                lastMoveC = c - 1;
-                return true;
-            }
-        }
+        if (!board.canPlay(c - 1))
+            return false;
 
-        return false;
+        lastMoveR = board.play(c - 1, player);
+        lastMoveC = c - 1;
+        history[moveCount++] = lastMoveC << 1 | player;
+        render[renderIndex(lastMoveR, lastMoveC)] = (byte) SYMBOLS[player].charAt(0);
+        rendered = null;
+        return true;
     }
 
     /**
      * Check win boolean.
+     * If the previous player won they stay the current player, matching the old board scan.
      *
      * @return Boolean if current player won
      */
     public boolean checkWin() {
-        changePlayer();
-
-        // Check Vertical
-        for (int i = 0; i < ROW_MAX - 3; i++) {
-            for (int j = 0; j < COLUMN_MAX; j++) {
-                if (board[i][j].equals(p) && board[i + 1][j].equals(p) && board[i + 2][j].equals(p) && board[i + 3][j].equals(p))
-                    return true;
-            }
+        // Vertical, horizontal and both diagonals of the previous player in one pass over the bitboard
+        if (board.isWin(1 - player)) {
+            changePlayer();
+            return true;
         }
 
-        // Check Horizontal
-        for (int i = 0; i < COLUMN_MAX - 3; i++) {
-            for (int j = 0; j < ROW_MAX; j++) {
-                if (board[i][j].equals(p) && board[i][j + 1].equals(p) && board[i][j + 2].equals(p) && board[i][j + 3].equals(p))
-                    return true;
-            }
-        }
+        return false;
+    }
 
-        // Check Diagonal Up
-        for (int i = 3; i < ROW_MAX; i++) {
-            for (int j = 0; j < COLUMN_MAX - 3; j++) {
-                if (board[i][j].equals(p) && board[i - 1][j + 1].equals(p) && board[i - 2][j + 2].equals(p) && board[i - 3][j + 3].equals(p))
-                    return true;
-            }
-        }
+    /**
+     * Check win boolean using only the lines through the last piece played.
+     * Behaves like {@link #checkWin()} but never looks at the rest of the board.
+     *
+     * @return Boolean if the player who just moved won
+     */
+    public boolean checkLastMoveWin() {
+        if (board.getMoves() == 0 || !board.isWinAt(lastMoveR, lastMoveC))
+            return false;
 
-        // Check Diagonal Down
-        for (int i = 3; i < ROW_MAX; i++) {
-            for (int j = 3; j < COLUMN_MAX; j++) {
-                if (board[i][j].equals(p) && board[i - 1][j - 1].equals(p) && board[i - 2][j - 2].equals(p) && board[i - 3][j - 3].equals(p))
-                    return true;
-            }
-        }
         changePlayer();
-        return false;
+        return true;
     }
 }
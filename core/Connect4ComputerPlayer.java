@@ -1,12 +1,25 @@
 package core;
 
-import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Connect 4 AI
+ * <p>
+ * Negamax search with alpha-beta pruning, centre-first move ordering and
+ * iterative deepening. Every move is bounded by a time and node budget, the
+ * deepest fully searched iteration decides the move. With more than one
+ * thread, helper searches share the transposition table with the main search
+ * (Lazy SMP). Positions in the {@link OpeningBook} are answered without searching,
+ * so are positions another AI already solved or searched at least as deep as
+ * this one would, given a shared {@link PositionCache}. A move needed at once
+ * is answered by {@link #react(Board, int)} without searching.
  *
  * @author Joshua Kronemeyer
- * @version 1.0
+ * @version 2.0
  * @date 3/15/2019
  */
 
@@ -14,31 +27,284 @@ import java.util.Random;
  * The type Connect 4 computer player.
  */
 public class Connect4ComputerPlayer {
+    /**
+     * Default time budget per move in milliseconds
+     */
+    public static final long DEFAULT_TIME_BUDGET = 1000;
+
+    /**
+     * Default transposition table size in megabytes
+     */
+    public static final int DEFAULT_TABLE_SIZE = 16;
+
+    private final long timeBudget;
+    private final long nodeBudget;
+    private final TranspositionTable table;
+    private final AtomicBoolean stop = new AtomicBoolean();
+    private final Search[] searches;
+    private final ExecutorService helpers;
+    private OpeningBook book = OpeningBook.getDefault();
+    private PositionCache cache;
+    private boolean helperFailed;
+
     /**
      * The Ai move.
      */
     private int aiMove;
 
+    // Statistics of the last search
+    private long nodes;
+    private int depth;
+    private long thinkTime;
+    private int score;
+
+    // Move order and evaluation weights for the current board size
+    private int[] order;
+    private int[] weights;
+    private int weightsConnect;
+
     /**
-     * Instantiates a new Connect 4 computer player.
+     * Instantiates a new Connect 4 computer player with the default time budget.
      */
     public Connect4ComputerPlayer() {
+        this(DEFAULT_TIME_BUDGET, Long.MAX_VALUE, DEFAULT_TABLE_SIZE, 1);
+    }
+
+    /**
+     * Instantiates a new single threaded Connect 4 computer player.
+     *
+     * @param timeBudget Milliseconds the AI may think per move
+     * @param nodeBudget Positions the AI may search per move
+     * @param tableSize  Transposition table size in megabytes
+     */
+    public Connect4ComputerPlayer(long timeBudget, long nodeBudget, int tableSize) {
+        this(timeBudget, nodeBudget, tableSize, 1);
+    }
+
+    /**
+     * Instantiates a new Connect 4 computer player.
+     *
+     * @param timeBudget Milliseconds the AI may think per move
+     * @param nodeBudget Positions the AI may search per move, shared by all threads
+     * @param tableSize  Transposition table size in megabytes
+     * @param threads    Amount of threads searching every move
+     */
+    public Connect4ComputerPlayer(long timeBudget, long nodeBudget, int tableSize, int threads) {
+        if (timeBudget <= 0 || nodeBudget <= 0)
+            throw new IllegalArgumentException("Search budget must be positive");
+        if (threads <= 0)
+            throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        this.timeBudget = timeBudget;
+        this.nodeBudget = nodeBudget;
+        this.table = new TranspositionTable(tableSize);
+        this.searches = new Search[threads];
+        for (int i = 0; i < threads; i++)
+            searches[i] = new Search(table, stop);
+        this.helpers = threads == 1 ? null : Executors.newFixedThreadPool(threads - 1, r -> {
+            Thread t = new Thread(r, "connect4-search");
+            t.setDaemon(true);
+            return t;
+        });
         aiMove = 1;
     }
 
     /**
      * Generate string.
      *
-     * @param i Player input
-     * @return AI input generated
+     * @param game The game the AI is to move in, it is not modified
+     * @return AI input generated, the column to play (1 based)
+     */
+    public String generate(Connect4 game) {
+        return Integer.toString(generate(game.copyBoard(), game.getPlayerIndex(), Long.MAX_VALUE));
+    }
+
+    /**
+     * Generates a move for a position copied off the game, so the game may be on another thread
+     *
+     * @param board    The position, the AI searches on it
+     * @param player   Player to move
+     * @param deadline {@link System#nanoTime()} the move is due at, the time budget still applies
+     * @return The column to play (1 based)
      */
-    public String generate(int i) {
-        Random rnd = new Random(System.currentTimeMillis());
-        aiMove = rnd.nextInt((i + 3)) + 1;
-        while (aiMove > 6) {
-            aiMove = rnd.nextInt((i + 2)) + 1;
+    int generate(Board board, int player, long deadline) {
+        long start = System.nanoTime();
+        init(board.getWidth(), board.getHeight(), board.getConnect());
+        boolean fullBudget = deadline >= start + timeBudget * 1_000_000L;
+        deadline = Math.min(deadline, start + timeBudget * 1_000_000L);
+        long budget = Math.max(1, nodeBudget / searches.length);
+
+        // Book moves are instant
+        int bookMove = book == null ? -1 : book.lookup(board, player);
+        if (bookMove >= 0 && board.canPlay(bookMove))
+            return answer(bookMove, 0, 0, start);
+
+        // So are positions solved, or searched as deep as a search with this budget usually gets there, by any AI
+        long cached = cache == null ? 0 : cache.probe(board, player);
+        if (cached != 0 && board.canPlay(PositionCache.move(cached))) {
+            int expected = cache.expectedDepth(board, timeBudget);
+            if (PositionCache.isSolved(cached) || expected > 0 && PositionCache.depth(cached) >= expected)
+                return answer(PositionCache.move(cached), PositionCache.depth(cached), PositionCache.score(cached), start);
+        }
+
+        stop.set(false);
+        table.newSearch();
+
+        // Helpers on odd threads skip ahead a ply so the threads spread over depths
+        Future<?>[] pending = new Future<?>[searches.length];
+        for (int i = 1; i < searches.length; i++) {
+            Search helper = searches[i];
+            int startDepth = 1 + (i & 1);
+            helper.reset(board.copy(), order, weights, deadline, budget);
+            pending[i] = helpers.submit(() -> helper.run(player, startDepth, true));
+        }
+
+        searches[0].reset(board, order, weights, deadline, budget);
+        searches[0].run(player, 1, false);
+        stop.set(true);
+
+        // Deepest completed iteration wins, the main search on ties
+        Search result = searches[0];
+        nodes = searches[0].getNodes();
+        for (int i = 1; i < searches.length; i++) {
+            try {
+                pending[i].get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                continue;
+            } catch (ExecutionException e) {
+                // The move still stands on the other searches, a bug worth one warning per AI rather than one per move
+                if (!helperFailed) {
+                    helperFailed = true;
+                    Log.warn("Helper search failed, its result is ignored: " + e.getCause());
+                }
+                continue;
+            }
+            nodes += searches[i].getNodes();
+            if (searches[i].getDepth() > result.getDepth())
+                result = searches[i];
+        }
+
+        depth = result.getDepth();
+        score = result.getScore();
+        thinkTime = (System.nanoTime() - start) / 1_000_000L;
+        aiMove = result.getBest() + 1;
+        if (cache != null) {
+            int cells = board.getWidth() * board.getHeight();
+            boolean solved = Math.abs(score) >= Search.WIN_SCORE - cells || depth >= cells - board.getMoves();
+            cache.store(board, player, result.getBest(), score, depth, solved);
+            if (fullBudget) // A search cut short by the turn deadline says nothing about the budget
+                cache.searched(board, timeBudget, depth);
+        }
+        return aiMove;
+    }
+
+    /**
+     * Answers at once without searching, for when there is no time to think: a winning move,
+     * else one blocking the opponent's win, else the most central column
+     *
+     * @param board  The position, left as it was
+     * @param player Player to move
+     * @return The column to play (1 based)
+     */
+    int react(Board board, int player) {
+        long start = System.nanoTime();
+        init(board.getWidth(), board.getHeight(), board.getConnect());
+        int block = -1, fallback = -1;
+        for (int c : order) {
+            if (!board.canPlay(c))
+                continue;
+            if (fallback < 0)
+                fallback = c;
+            board.play(c, player);
+            boolean wins = board.isWin(player);
+            board.undo(c, player);
+            if (wins)
+                return answer(c, 0, Search.WIN_SCORE, start);
+            board.play(c, 1 - player);
+            if (board.isWin(1 - player) && block < 0)
+                block = c;
+            board.undo(c, 1 - player);
+        }
+        return answer(block >= 0 ? block : fallback, 0, 0, start);
+    }
+
+    /**
+     * Answers without searching
+     *
+     * @param move  Zero based column to play
+     * @param depth Depth the move was searched to, 0 for book moves
+     * @param score Score of the move
+     * @param start {@link System#nanoTime()} the move was asked for at
+     * @return The column to play (1 based)
+     */
+    private int answer(int move, int depth, int score, long start) {
+        nodes = 0;
+        this.depth = depth;
+        this.score = score;
+        thinkTime = (System.nanoTime() - start) / 1_000_000L;
+        aiMove = move + 1;
+        return aiMove;
+    }
+
+    /**
+     * Sets the opening book checked before searching, {@link OpeningBook#getDefault()} unless changed
+     *
+     * @param book The opening book, null to always search
+     */
+    public void setOpeningBook(OpeningBook book) {
+        this.book = book;
+    }
+
+    /**
+     * Shares search results with other AIs, none unless set
+     *
+     * @param cache The shared cache, null to always search
+     */
+    void setPositionCache(PositionCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Stops the helper threads, only needed when searching with more than one thread
+     */
+    public void shutdown() {
+        if (helpers != null)
+            helpers.shutdownNow();
+    }
+
+    /**
+     * Builds the move order and cell weights for the board dimensions
+     *
+     * @param width   The amount of columns
+     * @param height  The amount of rows
+     * @param connect Pieces in a row that win
+     */
+    private void init(int width, int height, int connect) {
+        if (order != null && order.length == width && weights.length == width * (height + 1) && connect == weightsConnect)
+            return;
+        weightsConnect = connect;
+
+        // Centre column first, then alternating outwards
+        order = new int[width];
+        int centre = (width - 1) / 2;
+        for (int i = 0; i < width; i++)
+            order[i] = centre + (i % 2 == 0 ? -i / 2 : (i + 1) / 2);
+
+        // Number of winning lines through every cell
+        weights = new int[width * (height + 1)];
+        int[][] dirs = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+        for (int c = 0; c < width; c++) {
+            for (int r = 0; r < height; r++) {
+                for (int[] dir : dirs) {
+                    for (int k = 0; k < connect; k++) {
+                        int c0 = c - dir[0] * k, r0 = r - dir[1] * k;
+                        int c3 = c0 + dir[0] * (connect - 1), r3 = r0 + dir[1] * (connect - 1);
+                        if (c0 >= 0 && r0 >= 0 && r0 < height && c3 < width && r3 >= 0 && r3 < height)
+                            weights[c * (height + 1) + r]++;
+                    }
+                }
+            }
         }
-        return Integer.toString(aiMove);
     }
 
     /**
@@ -49,4 +315,40 @@ public class Connect4ComputerPlayer {
     public int getAiMove() {
         return aiMove;
     }
+
+    /**
+     * Gets the amount of positions searched for the last move, summed over all threads
+     *
+     * @return Nodes searched
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Gets the deepest fully searched iteration of the last move, 0 for book moves
+     *
+     * @return Depth reached in plies
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Gets the time spent on the last move
+     *
+     * @return Think time in milliseconds
+     */
+    public long getThinkTime() {
+        return thinkTime;
+    }
+
+    /**
+     * Gets the score of the last move from the AI's view, above zero favours the AI
+     *
+     * @return Search score
+     */
+    public int getScore() {
+        return score;
+    }
 }
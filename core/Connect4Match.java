@@ -0,0 +1,312 @@
+package core;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turn logic of one game between two seats, shared by every server mode
+ * <p>
+ * Seat 0 connected first and moves first. Inputs are only ever read from the
+ * seat whose turn it is, the transport decodes them with {@link Protocol} and
+ * hands them in through {@link #handle(int, Output)}. Seat 1 may be taken by
+ * the AI, nothing is sent to it. Whenever {@link #isAiTurn()} the transport
+ * asks for its move with {@link #think(ThinkPool.Reply)}, which is searched
+ * on a {@link ThinkPool} thread, and hands the move in like any other input
+ * on its own thread. The position lives in a {@link GameState}, off the heap
+ * in the {@link SessionTable} for boards that fit, and is released once the
+ * match is closed. Given a {@link GameLog}, every game is handed to it once it is won,
+ * drawn, reset or left. Given a {@link SpectatorServer}, every move is
+ * published to the spectators of the match.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+final class Connect4Match {
+    /**
+     * Where replies of a turn are written to, encoded for the protocol of each seat
+     */
+    interface Output {
+        /**
+         * Sends a message to a seat
+         *
+         * @param seat  Seat 0 or 1
+         * @param op    {@link Protocol#OP_PLAYER}, {@link Protocol#OP_STATUS} or {@link Protocol#OP_MOVE}
+         * @param value Player index, status code or column
+         * @throws IOException If the seat cannot be written to
+         */
+        void send(int seat, int op, int value) throws IOException;
+    }
+
+    /**
+     * Seat the AI plays on, if any
+     */
+    static final int AI_SEAT = 1;
+
+    private final GameState game;
+    private final Variant variant;
+    private final Connect4ComputerPlayer ai;
+    private final ThinkPool pool;
+    private final Metrics metrics = Metrics.get();
+    private int turn;
+    private int turns;
+    private boolean over;
+    private ThinkPool.Job thinking;
+
+    // Recording, only used with a game log
+    private GameLog log;
+    private String[] players;
+    private short[] moveMillis;
+    private long startMillis, startNanos, lastMoveNanos;
+    private boolean recorded;
+
+    // Spectators, only used with a spectator server
+    private SpectatorServer spectators;
+    private Broadcast broadcast;
+
+    /**
+     * Instantiates a match between two connected players
+     *
+     * @param variant Board both players asked for
+     */
+    Connect4Match(Variant variant) {
+        this(variant, null, null);
+    }
+
+    /**
+     * Instantiates a match
+     *
+     * @param variant Board the players asked for
+     * @param ai      The AI playing {@link #AI_SEAT}, null if both seats are connected players
+     * @param pool    Where the AI thinks, null without an AI
+     */
+    Connect4Match(Variant variant, Connect4ComputerPlayer ai, ThinkPool pool) {
+        this.game = GameState.create(variant);
+        this.variant = variant;
+        this.ai = ai;
+        this.pool = pool;
+    }
+
+    /**
+     * Sends every connected seat the player it plays as
+     *
+     * @param out Where the messages are written to
+     * @throws IOException If a seat cannot be written to
+     */
+    void start(Output out) throws IOException {
+        begin();
+        send(out, 0, Protocol.OP_PLAYER, game.getPlayerIndex());
+        send(out, 1, Protocol.OP_PLAYER, 1 - game.getPlayerIndex());
+    }
+
+    /**
+     * Hands every game of this match to {@code log}
+     *
+     * @param log    The game log
+     * @param first  Name of seat 0
+     * @param second Name of seat 1
+     */
+    void recordTo(GameLog log, String first, String second) {
+        this.log = log;
+        this.players = new String[]{first, second};
+        this.moveMillis = new short[variant.columns * variant.rows];
+    }
+
+    /**
+     * Lets spectators watch this match
+     *
+     * @param spectators The spectator server
+     */
+    void broadcastTo(SpectatorServer spectators) {
+        this.spectators = spectators;
+        this.broadcast = spectators.open(variant);
+    }
+
+    /**
+     * @return The id spectators watch this match by, for the log, empty if it cannot be watched
+     */
+    String getBroadcastName() {
+        return broadcast == null ? "" : " #" + broadcast.id;
+    }
+
+    /**
+     * Records the game if it is still running, ends the broadcast and releases the position, call once the
+     * session ends however it ends
+     */
+    void close() {
+        if (thinking != null)
+            thinking.cancel();
+        finish(GameRecord.ABANDONED);
+        if (broadcast != null)
+            spectators.close(broadcast);
+        game.release();
+    }
+
+    /**
+     * Gets the seat whose input is read next, the connected seat once a game against the AI ended
+     *
+     * @return Seat 0 or 1
+     */
+    int getTurn() {
+        return turn;
+    }
+
+    /**
+     * Counts the times the turn passed, including resets, so transports can restart turn clocks
+     *
+     * @return Turns passed so far
+     */
+    int getTurns() {
+        return turns;
+    }
+
+    /**
+     * @param seat Seat 0 or 1
+     * @return boolean if the AI plays {@code seat}
+     */
+    boolean isAi(int seat) {
+        return ai != null && seat == AI_SEAT;
+    }
+
+    /**
+     * @return boolean if the AI is to move, ask for its move with {@link #think(ThinkPool.Reply)}
+     */
+    boolean isAiTurn() {
+        return isAi(turn) && !over && !game.isBoardFull();
+    }
+
+    /**
+     * Asks the pool for the AI's move, the game is not touched until the move is handed in
+     *
+     * @param reply Takes the move, on a pool thread, the transport hands it to {@link #handle(int, Output)} on its own
+     */
+    void think(ThinkPool.Reply reply) {
+        thinking = pool.submit(ai, game.copyBoard(), game.getPlayerIndex(), reply);
+    }
+
+    /**
+     * Handles one input of the seat whose turn it is, for the AI's seat the move it came up with
+     *
+     * @param in  A column, {@link Protocol#IN_RESET}, {@link Protocol#IN_QUIT} or {@link Protocol#IN_INVALID}
+     * @param out Where replies are written to
+     * @return boolean false once the session should end
+     * @throws IOException If a reply cannot be written
+     */
+    boolean handle(int in, Output out) throws IOException {
+        int mover = turn, other = 1 - turn;
+
+        if (in == Protocol.IN_RESET) { // Reset via Networking isn't implemented yet
+            finish(GameRecord.ABANDONED);
+            game.initBoard();
+            over = false;
+            begin();
+            if (broadcast != null)
+                broadcast.reset(game.getPlayerIndex());
+        } else if (in == Protocol.IN_QUIT) {
+            return false; // Terminate
+        } else if (game.update(in) != Connect4.OK) {
+            metrics.invalidMove();
+            send(out, mover, Protocol.OP_STATUS, Protocol.INVALID); // Same seat tries again
+            return true;
+        } else if (game.checkLastMoveWin()) {
+            metrics.move();
+            metrics.win();
+            timeMove();
+            finish(mover == 0 ? GameRecord.SEAT_0_WON : GameRecord.SEAT_1_WON);
+            if (broadcast != null) {
+                broadcast.move(in);
+                broadcast.win();
+            }
+            send(out, mover, Protocol.OP_STATUS, Protocol.WIN);
+            send(out, other, Protocol.OP_STATUS, Protocol.WIN);
+            send(out, other, Protocol.OP_MOVE, in);
+            over = true;
+        } else {
+            metrics.move();
+            timeMove();
+            if (game.isBoardFull())
+                finish(GameRecord.DRAW);
+            if (broadcast != null)
+                broadcast.move(in);
+            send(out, mover, Protocol.OP_STATUS, Protocol.VALID);
+            send(out, other, Protocol.OP_MOVE, in);
+        }
+        // The AI sends no reset or quit, after its game ended the connected seat's input is read on
+        if (!isAi(other) || !(over || game.isBoardFull()))
+            turn = other;
+        turns++;
+        return true;
+    }
+
+    /**
+     * Ends the match because a seat ran out of time, both seats are told and the session should close
+     *
+     * @param seat    The seat out of time
+     * @param forfeit boolean if it loses a running game, otherwise the game counts as abandoned
+     * @param out     Where the messages are written to
+     * @throws IOException If a seat cannot be written to
+     */
+    void timeOut(int seat, boolean forfeit, Output out) throws IOException {
+        if (forfeit && !over)
+            finish(seat == 0 ? GameRecord.SEAT_1_WON : GameRecord.SEAT_0_WON);
+        finish(GameRecord.ABANDONED);
+        over = true;
+        send(out, 0, Protocol.OP_STATUS, Protocol.TIMEOUT);
+        send(out, 1, Protocol.OP_STATUS, Protocol.TIMEOUT);
+    }
+
+    /**
+     * Starts the clock of a new game
+     */
+    private void begin() {
+        startMillis = System.currentTimeMillis();
+        startNanos = System.nanoTime();
+        lastMoveNanos = startNanos;
+        recorded = false;
+    }
+
+    /**
+     * Notes how long the move just played took
+     */
+    private void timeMove() {
+        if (log == null)
+            return;
+        long now = System.nanoTime();
+        long millis = TimeUnit.NANOSECONDS.toMillis(now - lastMoveNanos);
+        moveMillis[game.getMoveCount() - 1] = (short) Math.min(millis, 0xFFFF);
+        lastMoveNanos = now;
+    }
+
+    /**
+     * Hands the game to the log unless it was already or no move was played
+     *
+     * @param result How the game ended, see {@link GameRecord}
+     */
+    private void finish(int result) {
+        if (log == null || recorded || game.getMoveCount() == 0)
+            return;
+        recorded = true;
+
+        int count = game.getMoveCount();
+        byte[] moves = new byte[count];
+        for (int i = 0; i < count; i++)
+            moves[i] = (byte) game.getMove(i);
+        log.append(new GameRecord(startMillis, (int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+                variant.columns, variant.rows, variant.connect, result, ai != null,
+                players.clone(), moves, Arrays.copyOf(moveMillis, count)));
+    }
+
+    /**
+     * Sends to connected seats only
+     *
+     * @param out   Where replies are written to
+     * @param seat  Seat 0 or 1
+     * @param op    Opcode
+     * @param value Player index, status code or column
+     * @throws IOException If the seat cannot be written to
+     */
+    private void send(Output out, int seat, int op, int value) throws IOException {
+        if (!isAi(seat))
+            out.send(seat, op, value);
+    }
+}
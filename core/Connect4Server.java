@@ -1,10 +1,22 @@
 package core;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * The type Connect 4 server.
@@ -13,137 +25,452 @@ public class Connect4Server {
     /**
      * The entry point of application.
      *
-     * @param args Optional Args (Could be used to setup custom ports)
+     * @param args Optional Args such as {@code --port=8082}, {@code --mode=thread|virtual|nio} and {@code --tcp-nodelay=true} (see {@link ServerConfig})
      * @throws IOException Unlikely to throw an exception, but will if resources cannot be allocated
      */
     public static void main(String[] args) throws IOException {
-        ServerSocket sSocket = new ServerSocket(8082);
+        ServerConfig config = ServerConfig.parse(args);
+        Log.setLevel(config.getLogLevel());
+        Metrics metrics = Metrics.get();
+        if (config.getMetricsPort() > 0)
+            metrics.serve(config.getMetricsPort());
+        GameLog gameLog = config.openGameLog();
+        Drain.onShutdown(config.getDrainTimeout(), gameLog);
+        metrics.watch(gameLog);
+        metrics.watch(config.getPositionCache());
+        SpectatorServer spectators = null;
+        if (config.getSpectatorPort() > 0) {
+            spectators = new SpectatorServer(config.getSpectatorPort());
+            spectators.start();
+        }
+        if (config.getMode() == ServerConfig.Mode.NIO)
+            new NioServer(config, gameLog, spectators).run();
+        else
+            runThreads(config, sessionExecutor(config.getMode()), gameLog, spectators);
+    }
+
+    /**
+     * Gets the executor running blocking game sessions
+     *
+     * @param mode {@link ServerConfig.Mode#THREAD} or {@link ServerConfig.Mode#VIRTUAL}
+     * @return An executor starting one thread per session
+     * @throws IllegalStateException If virtual threads are asked for but the JVM has none
+     */
+    static ExecutorService sessionExecutor(ServerConfig.Mode mode) {
+        if (mode == ServerConfig.Mode.THREAD)
+            return Executors.newCachedThreadPool();
+
+        // Looked up reflectively so the default Java 17 build compiles, a -PjavaVersion=21 build runs it
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("--mode=virtual needs Java 21, running " + Runtime.version()
+                    + ", build and run with gradle -PjavaVersion=21");
+        }
+    }
+
+    /**
+     * Accepts clients for the matchmaker and runs every game as a blocking session on {@code executor}
+     *
+     * @param config     Server configuration
+     * @param executor   Executor running the game sessions
+     * @param gameLog    Where finished games are recorded, null if nowhere
+     * @param spectators Where games can be watched, null if nowhere
+     * @throws IOException If the server socket cannot be opened
+     */
+    private static void runThreads(ServerConfig config, ExecutorService executor, GameLog gameLog,
+                                   SpectatorServer spectators) throws IOException {
+        Matchmaker<SocketTicket> matchmaker = new Matchmaker<>(new Matchmaker.Listener<SocketTicket>() {
+            @Override
+            public void paired(SocketTicket first, SocketTicket second) {
+                start(new Connect4Match(first.getVariant()), first, second);
+            }
+
+            @Override
+            public void pairedWithAi(SocketTicket player) {
+                start(new Connect4Match(player.getVariant(), config.newAi(), config.getThinkPool()), player, null);
+            }
+
+            private void start(Connect4Match match, SocketTicket first, SocketTicket second) {
+                if (gameLog != null)
+                    match.recordTo(gameLog, first.getName(), second == null ? "AI" : second.getName());
+                if (spectators != null)
+                    match.broadcastTo(spectators);
+                Log.info("Spinning new game session" + match.getBroadcastName());
+                // Starting the session writes to the seats and may block, so it runs on the session's thread
+                executor.execute(() -> {
+                    Connect4Client client;
+                    try {
+                        client = new Connect4Client(config, match, first, second);
+                    } catch (IOException e) {
+                        Log.info("Client terminated connection closing");
+                        Metrics.get().disconnected();
+                        match.close();
+                        first.close();
+                        if (second != null)
+                            second.close();
+                        return;
+                    }
+                    client.run();
+                });
+            }
+        }, config.getMatchTimeout(), config.getAiFallback(), config.getHandshake());
+        matchmaker.start();
+        Drain.pairing(matchmaker);
+
+        // Accepted as channels so the matchmaker can peek at waiting clients without blocking
+        ServerSocketChannel server = ServerSocketChannel.open();
+        config.configure(server.socket());
+        server.bind(new InetSocketAddress(config.getPort()));
+        Drain.listening(server);
         while (true) {
-            Socket socket = sSocket.accept();
-            System.out.println("Client 1 is connecting...");
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (IOException e) {
+                if (Metrics.get().isDraining())
+                    return; // Closed by the drain, the running games go on
+                throw e;
+            }
+            Log.info("Client is connecting...");
+            Metrics.get().connected();
+            try {
+                config.configure(channel.socket());
+                matchmaker.enqueue(new SocketTicket(channel));
+            } catch (IOException e) {
+                channel.close();
+            }
+        }
+    }
+}
 
-            DataInputStream dIn = new DataInputStream(socket.getInputStream());
-            DataOutputStream dOut = new DataOutputStream(socket.getOutputStream());
+/**
+ * A blocking client waiting for a game, later one seat of it.
+ * While it waits its channel is only peeked at without blocking, anything read
+ * early is kept for the game. Once paired, {@link #open()} switches it to
+ * blocking streams on the session's thread. Output is buffered and only
+ * written by {@link #flush()}, once per turn.
+ */
+class SocketTicket implements Matchmaker.Ticket {
+    // Room for a hello and the first frame after it
+    private static final int EARLY = 64;
 
-            Socket socket2 = sSocket.accept();
-            System.out.println("Client 2 is connecting...");
+    final SocketChannel channel;
+    private final ByteBuffer early = ByteBuffer.allocate(EARLY);
+    private DataInputStream dIn;
+    private DataOutputStream dOut;
+    private int version;
+    private Variant variant = Variant.STANDARD;
+    private boolean ai;
 
-            DataInputStream dIn2 = new DataInputStream(socket2.getInputStream());
-            DataOutputStream dOut2 = new DataOutputStream(socket2.getOutputStream());
+    /**
+     * Constructor
+     *
+     * @param channel The channel we are on
+     * @throws IOException the io exception
+     */
+    SocketTicket(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        channel.configureBlocking(false);
+    }
+
+    /**
+     * Peeks at the bytes that arrived so far without blocking, a hello switches the client to the binary protocol
+     *
+     * @param giveUp boolean if a silent client is taken for a string protocol client
+     * @return {@link #READY}, {@link #WAITING} or {@link #GONE}
+     */
+    @Override
+    public int handshake(boolean giveUp) {
+        try {
+            if (channel.read(early) < 0)
+                return GONE;
+        } catch (IOException e) {
+            return GONE;
+        }
+
+        if (early.position() == 0)
+            return giveUp ? READY : WAITING;
+        if ((early.get(0) & 0xFF) != Protocol.HELLO)
+            return READY;
+        if (early.position() < 2)
+            return WAITING;
 
-            System.out.println("Spinning new server thread");
+        int asked = early.get(1) & 0xFF;
+        int length = Protocol.helloLength(asked);
+        if (early.position() < length)
+            return WAITING;
 
-            Thread t = new Connect4Client(socket, socket2, dIn, dOut, dIn2, dOut2);
+        version = Math.min(asked, Protocol.VERSION);
+        if (asked >= Protocol.VERSION_VARIANTS)
+            variant = Variant.of(early.get(2), early.get(3), early.get(4));
+        if (asked >= Protocol.VERSION_OPPONENT)
+            ai = early.get(5) == Protocol.OPPONENT_AI;
+        early.flip();
+        early.position(length);
+        early.compact();
 
-            t.start();
+        ByteBuffer ack = ByteBuffer.allocate(2 + Protocol.VARIANT_BYTES);
+        ack.put((byte) Protocol.HELLO).put((byte) version);
+        if (version >= Protocol.VERSION_VARIANTS)
+            ack.put((byte) variant.columns).put((byte) variant.rows).put((byte) variant.connect);
+        ack.flip();
+        try {
+            // A few bytes always fit an empty send buffer, the write never blocks the matchmaker
+            channel.write(ack);
+        } catch (IOException e) {
+            return GONE;
+        }
+        return READY;
+    }
+
+    @Override
+    public Variant getVariant() {
+        return variant;
+    }
+
+    @Override
+    public boolean wantsAi() {
+        return ai;
+    }
+
+    /**
+     * @return Address of the client, for the game log
+     */
+    String getName() {
+        return String.valueOf(channel.socket().getRemoteSocketAddress());
+    }
+
+    /**
+     * Ends a blocked {@link #read()} from another thread, the client can still be written to
+     */
+    void shutdownInput() {
+        try {
+            channel.shutdownInput();
+        } catch (IOException e) {
+            // Closed already, the reader fails anyway
+        }
+    }
+
+    /**
+     * Peeks without blocking, only end of stream means the client left
+     *
+     * @return boolean if the client is still connected
+     */
+    @Override
+    public boolean isConnected() {
+        try {
+            return !early.hasRemaining() || channel.read(early) >= 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Switches to blocking streams for the session, call once on the session's thread before anything is sent
+     *
+     * @throws IOException If the client left
+     */
+    void open() throws IOException {
+        channel.configureBlocking(true);
+        Socket socket = channel.socket();
+        // Read early bytes first, a read never waits on the socket for more while some are left. The chain
+        // closes each stream it finished, the socket's stream ignores that and is closed with the channel.
+        InputStream socketIn = new FilterInputStream(socket.getInputStream()) {
+            @Override
+            public void close() {
+            }
+        };
+        InputStream in = new SequenceInputStream(new ByteArrayInputStream(early.array(), 0, early.position()), socketIn);
+        dIn = new DataInputStream(new BufferedInputStream(in));
+        dOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 256));
+    }
+
+    /**
+     * Reads the next input in the client's protocol
+     *
+     * @return A column or one of the other {@link Protocol} inputs
+     * @throws IOException If the client left
+     */
+    int read() throws IOException {
+        if (version == 0)
+            return Protocol.parse(dIn.readUTF());
+        int op = dIn.readUnsignedByte();
+        return Protocol.decode(op, dIn.readByte());
+    }
+
+    /**
+     * Buffers one message in the client's protocol
+     *
+     * @param op    Opcode
+     * @param value Player index, status code or column
+     * @throws IOException If the client left
+     */
+    void send(int op, int value) throws IOException {
+        if (version == 0) {
+            dOut.writeUTF(Protocol.toText(op, value));
+        } else {
+            dOut.writeByte(op);
+            dOut.writeByte(value);
+        }
+    }
+
+    /**
+     * Writes everything buffered since the last flush in one go
+     *
+     * @throws IOException If the client left
+     */
+    void flush() throws IOException {
+        dOut.flush();
+    }
+
+    @Override
+    public void close() {
+        try {
+            // Ends the stream first, a channel closed with heartbeats left unread would reset the connection
+            if (channel.isConnected())
+                channel.shutdownOutput();
+        } catch (IOException e) {
+            // Gone already, closed below
+        }
+        try {
+            channel.close();
+        } catch (Exception e) {
+            Log.warn("Could not close server correctly... Check task manager.");
         }
     }
 }
 
 /**
- * The type Connect 4 client.
+ * The type Connect 4 client, one blocking game session.
+ * A seat out of time has its input shut down by the timer, which ends the blocked read.
+ * The AI's moves are searched on the {@link ThinkPool}, the session only waits for them.
  */
-class Connect4Client extends Thread {
-    private final Socket socket, socket2;
-    private final DataInputStream dIn, dIn2;
-    private final DataOutputStream dOut, dOut2;
-    private Connect4 game;
+class Connect4Client implements Runnable {
+    private final SocketTicket[] seats;
+    private final Connect4Match match;
+    private final Connect4Match.Output out;
+    private final Metrics metrics = Metrics.get();
+    private final Watchdog watchdog;
+    private final boolean forfeit;
+
+    // Seat the timer found out of time, -1 while none is
+    private volatile int timedOut = -1;
 
     /**
      * Constructor
      *
-     * @param socket  The socket we are on
-     * @param socket2 the socket 2
-     * @param dIn     DataInputStream (from Client)
-     * @param dOut    DataOutputStream (to Client)
-     * @param dIn2    the d in 2
-     * @param dOut2   the d out 2
+     * @param config Server configuration, for the timeouts
+     * @param match  The game to play
+     * @param first  Client on seat 0
+     * @param second Client on seat 1, null if the AI plays it
      * @throws IOException the io exception
      */
-    Connect4Client(Socket socket, Socket socket2, DataInputStream dIn, DataOutputStream dOut, DataInputStream dIn2, DataOutputStream dOut2) throws IOException {
-        game = new Connect4();
-        this.dOut = dOut;
-        this.dIn = dIn;
-        this.socket = socket;
-        this.socket2 = socket2;
-        this.dIn2 = dIn2;
-        this.dOut2 = dOut2;
-        dOut.writeUTF(game.getCurrentPlayer());
-        dOut2.writeUTF(game.getNonCurrentPlayer());
+    Connect4Client(ServerConfig config, Connect4Match match, SocketTicket first, SocketTicket second) throws IOException {
+        this.match = match;
+        this.seats = new SocketTicket[]{first, second};
+        this.out = (seat, op, value) -> seats[seat].send(op, value);
+        // Only the seat to move is read, so only its silence can be heard
+        this.watchdog = config.newWatchdog(false, seat -> {
+            timedOut = seat;
+            if (seats[seat] != null)
+                seats[seat].shutdownInput();
+        });
+        this.forfeit = config.getForfeit() == ServerConfig.Forfeit.LOSS;
+        for (SocketTicket seat : seats) {
+            if (seat != null)
+                seat.open();
+        }
+        match.start(out);
+        flush();
+        metrics.sessionStarted();
     }
 
     @Override
     public void run() {
-        String fromClient;
+        if (watchdog != null)
+            watchdog.start();
+        int fromClient;
         while (true) {
             try {
-                // First Client
-                fromClient = dIn.readUTF();
-                System.out.println("Received input " + fromClient);
+                int seat = match.getTurn();
+                fromClient = seats[seat].read();
+                long start = System.nanoTime();
+                if (Log.isDebug())
+                    Log.debug("Received input " + fromClient + " from Client " + (seat + 1));
+                if (watchdog != null)
+                    watchdog.heard(seat, fromClient == Protocol.IN_PING);
+                if (fromClient == Protocol.IN_PING)
+                    continue;
 
-                if (fromClient.equals("r")) { // Reset via Networking isn't implemented yet
-                    game.initBoard();
-                }
-                else if (fromClient.equals("q")) {
+                if (!match.handle(fromClient, out))
                     break; // Terminate
-                } else if (!game.update(fromClient)) {
-                    while (!game.update(fromClient)) {
-                        dOut.writeUTF("1"); // Invalid
-                        fromClient = dIn.readUTF();
-                    }
-                    dOut.writeUTF("0"); // Valid
-                    dOut2.writeUTF(fromClient);
-                } else if (game.checkWin()) {
-                    System.out.println("Win!");
-                    dOut.writeUTF("-2"); // Win
-                    dOut2.writeUTF("-2");
-                    dOut2.writeUTF(fromClient);
-                } else {
-                    dOut.writeUTF("0"); // Valid
-                    dOut2.writeUTF(fromClient);
-                    System.out.println("Sending " + fromClient + " to Client 2");
-                }
-                // Second Client
-                fromClient = dIn2.readUTF();
-                System.out.println("Received input " + fromClient);
-                if (fromClient.equals("r")) {
-                    game.initBoard();
+                if (watchdog != null)
+                    watchdog.turn(match.getTurn(), match.getTurns());
+                flush(); // The whole turn, replies to both seats, leaves as one write per seat
+                metrics.turnRelayed(System.nanoTime() - start);
+
+                while (match.isAiTurn()) {
+                    CompletableFuture<Integer> move = new CompletableFuture<>();
+                    match.think(move::complete);
+                    match.handle(move.join(), out);
+                    if (watchdog != null)
+                        watchdog.turn(match.getTurn(), match.getTurns());
+                    flush();
                 }
-                else if (fromClient.equals("q")) {
-                    break; // Terminate
-                } else if (!game.update(fromClient)) {
-                    while (!game.update(fromClient)) {
-                        dOut2.writeUTF("1"); // Invalid
-                        fromClient = dIn2.readUTF();
-                    }
-                    dOut2.writeUTF("0"); // Valid
-                    dOut.writeUTF(fromClient);
-                } else if (game.checkWin()) {
-                    System.out.println("Win!");
-                    dOut.writeUTF("-2"); // Win
-                    dOut.writeUTF(fromClient);
-                    dOut2.writeUTF("-2");
+            } catch (Exception e) {
+                if (timedOut >= 0) {
+                    timeOut(timedOut);
                 } else {
-                    dOut2.writeUTF("0"); // Valid
-                    dOut.writeUTF(fromClient);
-                    System.out.println("Sending " + fromClient + " to Client 1");
+                    Log.info("Client terminated connection closing");
+                    metrics.disconnected();
                 }
-            } catch (Exception e) {
-                System.out.println("Client terminated connection closing");
                 break;
             }
         }
+        if (watchdog != null)
+            watchdog.stop();
+        metrics.sessionEnded();
+        match.close();
 
+        for (SocketTicket seat : seats) {
+            if (seat != null)
+                seat.close();
+        }
+    }
+
+    /**
+     * Ends the game of a seat out of time and tells every seat that still listens
+     *
+     * @param seat The seat out of time
+     */
+    private void timeOut(int seat) {
+        Log.info("Client " + (seat + 1) + " ran out of time closing");
+        metrics.timedOut();
         try {
-            this.dIn.close();
-            this.dOut.close();
-            this.dIn2.close();
-            this.dOut2.close();
-            this.socket.close();
-            this.socket2.close();
-        } catch (Exception e) {
-            System.out.println("Could not close server correctly... Check task manager.");
+            match.timeOut(seat, forfeit, out);
+        } catch (IOException e) {
+            // Only buffered, written below
         }
+        for (SocketTicket ticket : seats) {
+            try {
+                if (ticket != null)
+                    ticket.flush();
+            } catch (IOException e) {
+                // This seat is gone, the other may still listen
+            }
+        }
+    }
 
+    /**
+     * Writes the buffered output of both seats
+     *
+     * @throws IOException If a seat left
+     */
+    private void flush() throws IOException {
+        for (SocketTicket seat : seats) {
+            if (seat != null)
+                seat.flush();
+        }
     }
 }
@@ -0,0 +1,95 @@
+package core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Graceful shutdown of a server, so a cluster node can leave without cutting games short
+ * <p>
+ * On SIGTERM or Ctrl-C the server reports itself as draining, which routers
+ * poll to send new games elsewhere, and closes its listening sockets so new
+ * clients are refused and routers try another node right away. Clients still
+ * waiting for an opponent are dropped, no game starts once the drain began.
+ * Games already running go on until the last one ends or the drain timeout
+ * passes, then the game log writes what is left and the process exits. The
+ * timeout is 0 unless set, a standalone server exits right away like it
+ * always did, {@link Cluster} gives its nodes time to drain.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+final class Drain {
+    // Milliseconds between two looks at the running sessions
+    private static final long POLL = 100;
+
+    private static final List<Closeable> LISTENERS = new CopyOnWriteArrayList<>();
+    private static final List<Matchmaker<?>> MATCHMAKERS = new CopyOnWriteArrayList<>();
+
+    private Drain() {
+    }
+
+    /**
+     * Drains the server when the JVM is asked to shut down
+     *
+     * @param timeoutMillis Milliseconds running games get to end
+     * @param gameLog       Log closed once the games ended, null if there is none
+     */
+    static void onShutdown(long timeoutMillis, GameLog gameLog) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> run(timeoutMillis, gameLog), "connect4-drain"));
+    }
+
+    /**
+     * Registers a listening socket to close once draining starts
+     *
+     * @param listener A bound server socket or channel
+     */
+    static void listening(Closeable listener) {
+        LISTENERS.add(listener);
+    }
+
+    /**
+     * Registers a matchmaker to stop once draining starts
+     *
+     * @param matchmaker A started matchmaker
+     */
+    static void pairing(Matchmaker<?> matchmaker) {
+        MATCHMAKERS.add(matchmaker);
+    }
+
+    /**
+     * @param timeoutMillis Milliseconds running games get to end
+     * @param gameLog       Log closed once the games ended, null if there is none
+     */
+    private static void run(long timeoutMillis, GameLog gameLog) {
+        Metrics metrics = Metrics.get();
+        metrics.draining();
+        Log.info("Draining " + metrics.getActiveSessions() + " sessions");
+        for (Closeable listener : LISTENERS) {
+            try {
+                listener.close();
+            } catch (IOException e) {
+                Log.warn("Could not stop listening: " + e.getMessage());
+            }
+        }
+        try {
+            for (Matchmaker<?> matchmaker : MATCHMAKERS)
+                matchmaker.stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            while (metrics.getActiveSessions() > 0 && System.nanoTime() < deadline)
+                Thread.sleep(POLL);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long left = metrics.getActiveSessions();
+        Log.info(left == 0 ? "Drained" : "Drain timed out, cutting " + left + " sessions short");
+        if (gameLog != null)
+            gameLog.close();
+    }
+}
@@ -0,0 +1,461 @@
+package core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only binary log of finished games
+ * <p>
+ * Game threads only offer a {@link GameRecord} to a bounded queue and never
+ * wait, when the disk cannot keep up records are dropped and counted. One
+ * writer thread drains whatever queued up, appends it and syncs once for the
+ * whole batch, so a busy server pays one fsync per batch rather than per game.
+ * <p>
+ * The log is a directory of segments named after the id of their first game.
+ * A segment is rolled once it would grow past its size limit. Every record is
+ * {@code length, CRC32C, body}. On startup the segments are scanned to rebuild
+ * the index and a torn record at the end of the last segment, left by a crash,
+ * is cut off. A batch that fails to write is cut off right away, so later
+ * records never follow a torn one. {@link Reader} maps the segments read only for analytics and
+ * replays, run {@link #main(String[])} for a summary or to replay one game.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+public final class GameLog {
+    // Bytes in front of every record body, its length and checksum
+    private static final int HEADER = 8;
+
+    // Records written per fsync at most
+    private static final int MAX_BATCH = 256;
+
+    private static final String SUFFIX = ".seg";
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final Opener opener;
+    private final BlockingQueue<GameRecord> queue;
+    private final Metrics metrics = Metrics.get();
+    private final Thread writer;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+    private final CRC32C crc = new CRC32C();
+
+    // Only touched by the writer thread after open
+    private FileChannel segment;
+    private long committed; // End of the last batch written in full
+    private long nextId;
+    private volatile boolean closing;
+
+    /**
+     * Opens or creates the log, rebuilding the index of what is already there
+     *
+     * @param dir          Directory of the segments
+     * @param segmentBytes Size at which a new segment is started
+     * @param capacity     Records that may wait for the writer before new ones are dropped
+     * @throws IOException If the directory cannot be read or the last segment cannot be repaired
+     */
+    GameLog(Path dir, long segmentBytes, int capacity) throws IOException {
+        this(dir, segmentBytes, capacity, FileChannel::open);
+    }
+
+    /**
+     * @param dir          Directory of the segments
+     * @param segmentBytes Size at which a new segment is started
+     * @param capacity     Records that may wait for the writer before new ones are dropped
+     * @param opener       Opens the segments for writing
+     * @throws IOException If the directory cannot be read or the last segment cannot be repaired
+     */
+    GameLog(Path dir, long segmentBytes, int capacity, Opener opener) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.opener = opener;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        Files.createDirectories(dir);
+
+        Reader index = new Reader(dir, true);
+        nextId = index.getNextId();
+        List<Path> segments = segments(dir);
+        if (segments.isEmpty()) {
+            roll();
+        } else {
+            segment = opener.open(segments.get(segments.size() - 1), StandardOpenOption.WRITE);
+            committed = segment.size();
+            segment.position(committed);
+        }
+        Log.info("Game log " + dir + " holds " + index.size() + " games");
+        index.close();
+
+        writer = new Thread(this::drain, "connect4-game-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a finished game, never blocks
+     *
+     * @param record The game
+     */
+    void append(GameRecord record) {
+        if (closing || !queue.offer(record))
+            metrics.gameLogDropped();
+    }
+
+    /**
+     * @return Records waiting for the writer
+     */
+    int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * Writes what is queued and stops the writer, called by {@link Drain} on shutdown
+     */
+    void close() {
+        closing = true;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writer loop, one write and one sync per batch
+     */
+    private void drain() {
+        List<GameRecord> batch = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            // Polled rather than interrupted, an interrupt would close the segment in the middle of a write
+            GameRecord first;
+            try {
+                first = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (first == null) {
+                if (closing)
+                    break;
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, MAX_BATCH - 1);
+            try {
+                write(batch);
+            } catch (IOException e) {
+                Log.warn("Could not write " + batch.size() + " games to the game log: " + e.getMessage());
+                buffer.clear();
+                for (int i = 0; i < batch.size(); i++)
+                    metrics.gameLogDropped();
+                discard();
+            }
+            batch.clear();
+        }
+        try {
+            segment.close();
+        } catch (IOException e) {
+            Log.warn("Could not close the game log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Appends a batch and syncs it to disk
+     *
+     * @param batch Records in the order they finished
+     * @throws IOException If the segment cannot be written or synced
+     */
+    private void write(List<GameRecord> batch) throws IOException {
+        for (GameRecord record : batch) {
+            if (buffer.remaining() < HEADER + record.maxEncodedSize())
+                flush();
+            int start = buffer.position();
+            long written = segment.position() + start;
+            if (written > 0 && written + HEADER + record.maxEncodedSize() > segmentBytes) {
+                flush();
+                roll();
+                start = 0;
+            }
+            record.id = nextId++;
+            buffer.position(start + HEADER);
+            record.encode(buffer);
+            int length = buffer.position() - start - HEADER;
+            crc.reset();
+            crc.update(buffer.duplicate().position(start + HEADER).limit(buffer.position()));
+            buffer.putInt(start, length).putInt(start + 4, (int) crc.getValue());
+        }
+        flush();
+
+        long syncStart = System.nanoTime();
+        segment.force(false);
+        committed = segment.position();
+        metrics.gameLogSynced(batch.size(), System.nanoTime() - syncStart);
+    }
+
+    /**
+     * Cuts whatever a failed batch wrote off the current segment, or starts a new
+     * segment if it cannot be cut, so the next batch never follows a torn record
+     * that would end the index there
+     */
+    private void discard() {
+        try {
+            segment.truncate(committed);
+            segment.position(committed);
+            return;
+        } catch (IOException e) {
+            Log.warn("Could not cut a failed batch off the game log, starting a new segment: " + e.getMessage());
+        }
+        try {
+            roll();
+        } catch (IOException e) {
+            Log.warn("Could not start a new game log segment: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the buffered records to the current segment
+     *
+     * @throws IOException If the segment cannot be written
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            segment.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Syncs and closes the current segment and starts the next one
+     *
+     * @throws IOException If a segment cannot be closed or created
+     */
+    private void roll() throws IOException {
+        if (segment != null) {
+            try {
+                segment.force(false);
+            } finally {
+                segment.close();
+            }
+        }
+        Path next = dir.resolve(String.format("%020d", nextId) + SUFFIX);
+        segment = opener.open(next, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        segment.truncate(0);
+        committed = 0;
+    }
+
+    /**
+     * @param dir Directory of the log
+     * @return Segment files in the order they were written
+     * @throws IOException If the directory cannot be listed
+     */
+    private static List<Path> segments(Path dir) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path file : files)
+                segments.add(file);
+        }
+        segments.sort(null); // Zero padded ids sort like numbers
+        return segments;
+    }
+
+    /**
+     * Opens a segment file, {@link FileChannel#open(Path, OpenOption...)} outside of tests
+     */
+    interface Opener {
+        /**
+         * @param file    The segment
+         * @param options How to open it
+         * @return The channel
+         * @throws IOException If it cannot be opened
+         */
+        FileChannel open(Path file, OpenOption... options) throws IOException;
+    }
+
+    /**
+     * Read only view of a log through memory mapped segments
+     */
+    static final class Reader implements AutoCloseable {
+        private final List<MappedByteBuffer> maps = new ArrayList<>();
+
+        // Segment index in the upper, offset of the record in the lower 32 bits, by game id, -1 for ids never written
+        private long[] positions = filled(new long[1024], 0);
+        private int size, nextId;
+
+        /**
+         * Maps every segment and indexes the records in it
+         *
+         * @param dir Directory of the log
+         * @throws IOException If a segment cannot be mapped
+         */
+        Reader(Path dir) throws IOException {
+            this(dir, false);
+        }
+
+        /**
+         * @param dir    Directory of the log
+         * @param repair boolean if a torn record at the end of the last segment is cut off
+         * @throws IOException If a segment cannot be mapped or repaired
+         */
+        private Reader(Path dir, boolean repair) throws IOException {
+            List<Path> segments = segments(dir);
+            for (int s = 0; s < segments.size(); s++) {
+                Path file = segments.get(s);
+                boolean last = s == segments.size() - 1;
+                try (FileChannel channel = FileChannel.open(file, repair && last
+                        ? new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE}
+                        : new StandardOpenOption[]{StandardOpenOption.READ})) {
+                    MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    maps.add(map);
+                    int end = index(map, s);
+                    if (end < map.limit()) {
+                        Log.warn("Game log segment " + file.getFileName() + " has " + (map.limit() - end)
+                                + " unreadable bytes at the end" + (repair && last ? ", cutting them off" : ""));
+                        if (repair && last)
+                            channel.truncate(end);
+                        map.limit(end);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Indexes the records of one segment, stopping at the first one that is cut short or fails its checksum
+         *
+         * @param map     The mapped segment
+         * @param segment Index of the segment
+         * @return Offset after the last intact record
+         */
+        private int index(ByteBuffer map, int segment) {
+            CRC32C crc = new CRC32C();
+            int pos = 0;
+            while (pos + HEADER <= map.limit()) {
+                int length = map.getInt(pos);
+                if (length <= 0 || length > map.limit() - pos - HEADER)
+                    break;
+                crc.reset();
+                crc.update(map.duplicate().position(pos + HEADER).limit(pos + HEADER + length));
+                if ((int) crc.getValue() != map.getInt(pos + 4))
+                    break;
+                // By the stored id, the ids of a batch that failed to write are never used
+                long id = map.getLong(pos + HEADER);
+                if (id < 0 || id >= Integer.MAX_VALUE)
+                    break;
+                if (id >= positions.length)
+                    positions = filled(Arrays.copyOf(positions, (int) Math.max(id + 1, positions.length * 2L)),
+                            positions.length);
+                if (positions[(int) id] < 0)
+                    size++;
+                positions[(int) id] = (long) segment << 32 | pos;
+                nextId = Math.max(nextId, (int) id + 1);
+                pos += HEADER + length;
+            }
+            return pos;
+        }
+
+        /**
+         * @param positions Index to fill
+         * @param from      First entry to mark as never written
+         * @return The index
+         */
+        private static long[] filled(long[] positions, int from) {
+            Arrays.fill(positions, from, positions.length, -1);
+            return positions;
+        }
+
+        /**
+         * @return Games in the log
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * @return Id after the last game in the log, ids of games that were dropped leave gaps below it
+         */
+        int getNextId() {
+            return nextId;
+        }
+
+        /**
+         * @param id Game id
+         * @return boolean if the game is in the log
+         */
+        boolean has(int id) {
+            return id >= 0 && id < nextId && positions[id] >= 0;
+        }
+
+        /**
+         * @param id Game id, 0 is the first game ever logged
+         * @return The game
+         * @throws IndexOutOfBoundsException If there is no such game
+         */
+        GameRecord get(int id) {
+            if (!has(id))
+                throw new IndexOutOfBoundsException("No game " + id + ", the log holds " + size);
+            long position = positions[id];
+            ByteBuffer map = maps.get((int) (position >>> 32)).duplicate();
+            map.position((int) position + HEADER);
+            return GameRecord.decode(map);
+        }
+
+        @Override
+        public void close() {
+            maps.clear(); // Unmapped once collected
+        }
+    }
+
+    /**
+     * Prints a summary of a log, or replays one game
+     *
+     * @param args The log directory and optionally the id of a game to replay
+     * @throws IOException If the log cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: GameLog <directory> [game id]");
+            return;
+        }
+        try (Reader reader = new Reader(Paths.get(args[0]))) {
+            if (args.length > 1) {
+                GameRecord record = reader.get(Integer.parseInt(args[1]));
+                System.out.println(record);
+                Connect4 game = record.replay();
+                System.out.println("Moves: " + game.exportMoves());
+                System.out.print(game.getBoard());
+                return;
+            }
+
+            long[] results = new long[4];
+            long moves = 0, millis = 0, ai = 0;
+            for (int i = 0; i < reader.getNextId(); i++) {
+                if (!reader.has(i))
+                    continue;
+                GameRecord record = reader.get(i);
+                results[record.result]++;
+                moves += record.moves.length;
+                millis += record.durationMillis;
+                if (record.againstAi)
+                    ai++;
+            }
+            int n = Math.max(1, reader.size());
+            System.out.println(reader.size() + " games, " + ai + " against the AI");
+            System.out.println("First player won " + results[GameRecord.SEAT_0_WON] + ", second player won "
+                    + results[GameRecord.SEAT_1_WON] + ", " + results[GameRecord.DRAW] + " draws, "
+                    + results[GameRecord.ABANDONED] + " abandoned");
+            System.out.println("Average " + moves / n + " moves in " + millis / n + " ms");
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One finished game as {@link GameLog} stores it
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+final class GameRecord {
+    /**
+     * How the game ended
+     */
+    static final int SEAT_0_WON = 0, SEAT_1_WON = 1, DRAW = 2, ABANDONED = 3;
+
+    // Bit of the flags byte set when the AI played seat 1
+    private static final int FLAG_AI = 1;
+
+    // Fixed part of the encoded record: id, start, duration, variant, result, flags and the move count
+    private static final int FIXED_BYTES = 8 + 8 + 4 + 3 + 1 + 1 + 2;
+
+    // Longest player name kept, in bytes
+    private static final int MAX_NAME = 255;
+
+    long id;
+    final long startMillis;
+    final int durationMillis;
+    final int columns, rows, connect;
+    final int result;
+    final boolean againstAi;
+    final String[] players;
+    final byte[] moves;
+    final short[] moveMillis;
+
+    /**
+     * Instantiates a record
+     *
+     * @param startMillis    Wall clock time the game started at
+     * @param durationMillis How long the game took
+     * @param columns        The amount of columns
+     * @param rows           The amount of rows
+     * @param connect        Pieces in a row that win
+     * @param result         {@link #SEAT_0_WON}, {@link #SEAT_1_WON}, {@link #DRAW} or {@link #ABANDONED}
+     * @param againstAi      boolean if the AI played seat 1
+     * @param players        Names of seat 0 and seat 1
+     * @param moves          Columns played (1 based) in order
+     * @param moveMillis     Milliseconds each move took, capped at {@code 65535}
+     */
+    GameRecord(long startMillis, int durationMillis, int columns, int rows, int connect, int result,
+               boolean againstAi, String[] players, byte[] moves, short[] moveMillis) {
+        this.startMillis = startMillis;
+        this.durationMillis = durationMillis;
+        this.columns = columns;
+        this.rows = rows;
+        this.connect = connect;
+        this.result = result;
+        this.againstAi = againstAi;
+        this.players = players;
+        this.moves = moves;
+        this.moveMillis = moveMillis;
+    }
+
+    /**
+     * @return Upper bound of the bytes {@link #encode(ByteBuffer)} writes
+     */
+    int maxEncodedSize() {
+        return FIXED_BYTES + moves.length * 3 + 2 * (1 + MAX_NAME);
+    }
+
+    /**
+     * Writes the record, names are cut to 255 bytes of UTF-8
+     *
+     * @param out Buffer with at least {@link #maxEncodedSize()} bytes remaining
+     */
+    void encode(ByteBuffer out) {
+        out.putLong(id).putLong(startMillis).putInt(durationMillis);
+        out.put((byte) columns).put((byte) rows).put((byte) connect).put((byte) result);
+        out.put((byte) (againstAi ? FLAG_AI : 0));
+        out.putShort((short) moves.length);
+        out.put(moves);
+        for (short millis : moveMillis)
+            out.putShort(millis);
+        for (String name : players) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(bytes.length, MAX_NAME);
+            out.put((byte) length).put(bytes, 0, length);
+        }
+    }
+
+    /**
+     * Reads a record as {@link #encode(ByteBuffer)} wrote it
+     *
+     * @param in Buffer positioned at the record, advanced past it
+     * @return The record
+     */
+    static GameRecord decode(ByteBuffer in) {
+        long id = in.getLong();
+        long start = in.getLong();
+        int duration = in.getInt();
+        int columns = in.get() & 0xFF, rows = in.get() & 0xFF, connect = in.get() & 0xFF;
+        int result = in.get();
+        boolean ai = (in.get() & FLAG_AI) != 0;
+        int count = in.getShort() & 0xFFFF;
+        byte[] moves = new byte[count];
+        in.get(moves);
+        short[] moveMillis = new short[count];
+        for (int i = 0; i < count; i++)
+            moveMillis[i] = in.getShort();
+        String[] players = new String[2];
+        for (int i = 0; i < 2; i++) {
+            byte[] bytes = new byte[in.get() & 0xFF];
+            in.get(bytes);
+            players[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        GameRecord record = new GameRecord(start, duration, columns, rows, connect, result, ai, players, moves, moveMillis);
+        record.id = id;
+        return record;
+    }
+
+    /**
+     * Replays the moves on a new game
+     *
+     * @return The final position
+     */
+    Connect4 replay() {
+        Connect4 game = new Connect4(columns, rows, connect);
+        for (byte move : moves)
+            game.update(move);
+        return game;
+    }
+
+    @Override
+    public String toString() {
+        String[] results = {players[0] + " won", players[1] + " won", "draw", "abandoned"};
+        return "#" + id + " " + players[0] + " vs " + players[1] + ", " + columns + "x" + rows + " connect " + connect
+                + ", " + moves.length + " moves in " + durationMillis + " ms, " + results[result];
+    }
+}
@@ -0,0 +1,126 @@
+package core;
+
+/**
+ * The position of one server game, as much of {@link Connect4} as a {@link Connect4Match} needs
+ * <p>
+ * Games that fit a {@link SessionTable} slot keep their position off the heap,
+ * wider boards keep a {@link Connect4}. Either way the position belongs to
+ * the session and must be {@link #release() released} when it ends.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+interface GameState {
+    /**
+     * @param variant Board of the game
+     * @return A new game, in a table slot if it fits one
+     */
+    static GameState create(Variant variant) {
+        return SessionTable.fits(variant) ? SessionTable.get().allocate(variant) : new OnHeap(variant.newGame());
+    }
+
+    /**
+     * @param column The column the current player chose (1 based)
+     * @return {@link Connect4#OK}, {@link Connect4#OUT_OF_RANGE} or {@link Connect4#COLUMN_FULL}
+     */
+    int update(int column);
+
+    /**
+     * @return boolean if the player who just moved won, they stay the current player then
+     */
+    boolean checkLastMoveWin();
+
+    /**
+     * @return boolean if every column is full
+     */
+    boolean isBoardFull();
+
+    /**
+     * Clears the board, the current player stays
+     */
+    void initBoard();
+
+    /**
+     * @return Index of the player to move
+     */
+    int getPlayerIndex();
+
+    /**
+     * @return A copy of the position, for the AI to search
+     */
+    Board copyBoard();
+
+    /**
+     * @return Moves on the board
+     */
+    int getMoveCount();
+
+    /**
+     * @param ply Zero based move number, below {@link #getMoveCount()}
+     * @return The column of that move (1 based)
+     */
+    int getMove(int ply);
+
+    /**
+     * Gives back whatever the position holds, it must not be used afterwards
+     */
+    void release();
+
+    /**
+     * A game too wide for a table slot, on the heap
+     */
+    final class OnHeap implements GameState {
+        private final Connect4 game;
+
+        /**
+         * @param game The game
+         */
+        OnHeap(Connect4 game) {
+            this.game = game;
+        }
+
+        @Override
+        public int update(int column) {
+            return game.update(column);
+        }
+
+        @Override
+        public boolean checkLastMoveWin() {
+            return game.checkLastMoveWin();
+        }
+
+        @Override
+        public boolean isBoardFull() {
+            return game.isBoardFull();
+        }
+
+        @Override
+        public void initBoard() {
+            game.initBoard();
+        }
+
+        @Override
+        public int getPlayerIndex() {
+            return game.getPlayerIndex();
+        }
+
+        @Override
+        public Board copyBoard() {
+            return game.copyBoard();
+        }
+
+        @Override
+        public int getMoveCount() {
+            return game.getMoveCount();
+        }
+
+        @Override
+        public int getMove(int ply) {
+            return game.getMove(ply);
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package core;
+
+import java.util.Arrays;
+import java.util.function.ToLongFunction;
+
+/**
+ * Consistent hash ring with bounded loads
+ * <p>
+ * Every node owns {@link #REPLICAS} points on a ring of 64 bit hashes. A key
+ * goes to the first node clockwise from its hash whose load stays within
+ * {@code factor} times the average, so adding or losing a node only moves the
+ * keys next to its points, and no node gets more than its share when keys
+ * bunch up. Nodes that cannot take keys, such as down or draining ones, are
+ * skipped the same way.
+ * <p>
+ * The ring is immutable, a changed node set builds a new one.
+ *
+ * @param <N> Node type
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+final class HashRing<N> {
+    // Points per node, enough for an even spread over a handful of nodes
+    private static final int REPLICAS = 64;
+
+    private final long[] points;
+    private final Object[] owners;
+    private final N[] nodes;
+
+    /**
+     * Builds the ring
+     *
+     * @param nodes Every node, their {@code toString()} names their points and must be unique
+     */
+    HashRing(N[] nodes) {
+        this.nodes = nodes.clone();
+        int n = nodes.length * REPLICAS;
+        long[] hashes = new long[n];
+        Integer[] byHash = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            hashes[i] = mix((long) nodes[i / REPLICAS].toString().hashCode() << 32 | i % REPLICAS);
+            byHash[i] = i;
+        }
+        Arrays.sort(byHash, (a, b) -> Long.compare(hashes[a], hashes[b]));
+
+        points = new long[n];
+        owners = new Object[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = hashes[byHash[i]];
+            owners[i] = nodes[byHash[i] / REPLICAS];
+        }
+    }
+
+    /**
+     * Picks the node of a key
+     *
+     * @param key    Key, any value, it is hashed
+     * @param factor How far above the average load a node may go, at least 1
+     * @param load   Load of a node, negative if it takes no keys at all
+     * @return The node, null if no node takes keys
+     */
+    @SuppressWarnings("unchecked")
+    N pick(long key, double factor, ToLongFunction<N> load) {
+        long total = 0;
+        int live = 0;
+        for (N node : nodes) {
+            long l = load.applyAsLong(node);
+            if (l >= 0) {
+                total += l;
+                live++;
+            }
+        }
+        if (live == 0)
+            return null;
+        // The key itself counts, so an empty ring still admits it
+        long bound = (long) Math.ceil(factor * (total + 1) / live);
+
+        int start = Arrays.binarySearch(points, mix(key));
+        if (start < 0)
+            start = -start - 1;
+        for (int i = 0; i < points.length; i++) {
+            N node = (N) owners[(start + i) % points.length];
+            long l = load.applyAsLong(node);
+            if (l >= 0 && l < bound)
+                return node;
+        }
+        return null; // Unreachable, some live node is at or below the average
+    }
+
+    /**
+     * @return Every node of the ring
+     */
+    N[] getNodes() {
+        return nodes.clone();
+    }
+
+    /**
+     * Spreads a value over all 64 bits
+     *
+     * @param x Value
+     * @return Its hash
+     */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+}
@@ -0,0 +1,97 @@
+package core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram in the style of HdrHistogram
+ * <p>
+ * Values below 32 get a bucket each, above that every power of two is split
+ * into 32 linear sub-buckets, so any recorded value is reported within about
+ * 3% of its true value while the whole range of a {@code long} fits in under
+ * two thousand counters. Recording is one atomic increment, reading walks the
+ * counters and may see a few concurrent recordings half applied. Public for
+ * the load generator in {@code bench}.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+public final class Histogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Instantiates an empty histogram
+     */
+    public Histogram() {
+    }
+
+    /**
+     * Records one value
+     *
+     * @param value Value to record, negative values count as 0
+     */
+    public void record(long value) {
+        counts.incrementAndGet(index(Math.max(0, value)));
+    }
+
+    /**
+     * @return Amount of recorded values
+     */
+    public long count() {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            n += counts.get(i);
+        return n;
+    }
+
+    /**
+     * Gets a percentile
+     *
+     * @param percentile Percentile between 0 and 100
+     * @return Highest value equivalent to the percentile, 0 if nothing was recorded
+     */
+    public long percentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            total += snapshot[i] = counts.get(i);
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return highest(i);
+        }
+        return highest(BUCKETS - 1);
+    }
+
+    /**
+     * @param value Value to bucket
+     * @return Bucket of {@code value}
+     */
+    private static int index(long value) {
+        if (value < SUB)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB + (int) (value >>> shift) - SUB;
+    }
+
+    /**
+     * @param index Bucket
+     * @return Highest value in bucket {@code index}
+     */
+    private static long highest(int index) {
+        if (index < SUB)
+            return index;
+        int shift = index / SUB - 1;
+        long sub = index % SUB + SUB;
+        long high = ((sub + 1) << shift) - 1;
+        return high < 0 ? Long.MAX_VALUE : high; // Top bucket
+    }
+}
@@ -0,0 +1,104 @@
+package core;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Level gated asynchronous server log
+ * <p>
+ * Callers only offer a line to a bounded queue, a daemon thread does the
+ * console writes. When the console cannot keep up lines are dropped and
+ * counted rather than slowing down the games. Hot paths check
+ * {@link #isDebug()} before building a message.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+final class Log {
+    /**
+     * Levels in increasing severity, a line is written if its level is at least the configured one
+     */
+    enum Level {
+        DEBUG, INFO, WARN, OFF
+    }
+
+    private static final BlockingQueue<String> LINES = new ArrayBlockingQueue<>(4096);
+    private static final LongAdder DROPPED = new LongAdder();
+    private static volatile Level level = Level.INFO;
+
+    static {
+        Thread t = new Thread(Log::drain, "connect4-log");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private Log() {
+    }
+
+    /**
+     * @param level Lowest level written from now on
+     */
+    static void setLevel(Level level) {
+        Log.level = level;
+    }
+
+    /**
+     * @return boolean if debug lines are written, check before building one on a hot path
+     */
+    static boolean isDebug() {
+        return level == Level.DEBUG;
+    }
+
+    /**
+     * @param msg Per input detail
+     */
+    static void debug(String msg) {
+        log(Level.DEBUG, msg);
+    }
+
+    /**
+     * @param msg Connections, sessions and other rare events
+     */
+    static void info(String msg) {
+        log(Level.INFO, msg);
+    }
+
+    /**
+     * @param msg Something failed but the server keeps running
+     */
+    static void warn(String msg) {
+        log(Level.WARN, msg);
+    }
+
+    /**
+     * @return Lines dropped because the queue was full
+     */
+    static long getDropped() {
+        return DROPPED.sum();
+    }
+
+    /**
+     * @param at  Level of the line
+     * @param msg The line
+     */
+    private static void log(Level at, String msg) {
+        if (at.compareTo(level) < 0)
+            return;
+        if (!LINES.offer(msg))
+            DROPPED.increment();
+    }
+
+    /**
+     * Writes queued lines forever
+     */
+    private static void drain() {
+        while (true) {
+            try {
+                System.out.println(LINES.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package core;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pairs waiting players on its own thread
+ * <p>
+ * The accepting thread only adds tickets to a lock-free queue, so accepting
+ * stays fast however long pairing takes. A ticket is paired once its protocol
+ * is known, either it said hello or the handshake window passed in silence.
+ * Every variant has its own waiting player, a player is only paired with
+ * one of the same variant. A player whose partner disconnected before the
+ * game started keeps their place and waits for the next one. A player
+ * waiting too long is given an AI opponent if the fallback is enabled, else
+ * dropped. A player that asked for the AI gets it as soon as its protocol is
+ * known, whether the fallback is enabled or not. Once {@link #stop() stopped}
+ * nobody is paired any more and every waiting player is dropped.
+ *
+ * @param <T> Transport specific ticket
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+final class Matchmaker<T extends Matchmaker.Ticket> implements Runnable {
+    /**
+     * A connected player waiting for a game
+     */
+    interface Ticket {
+        /**
+         * Results of {@link #handshake(boolean)}
+         */
+        int GONE = -1, WAITING = 0, READY = 1;
+
+        /**
+         * Looks for the client's hello without blocking for long
+         *
+         * @param giveUp boolean if the handshake window passed, a silent client speaks the string protocol
+         * @return {@link #READY} once the protocol is known, {@link #WAITING} or {@link #GONE}
+         */
+        int handshake(boolean giveUp);
+
+        /**
+         * @return The variant the player asked for in the handshake, only called once it is {@link #READY}
+         */
+        Variant getVariant();
+
+        /**
+         * @return boolean if the player asked for the AI in the handshake, only called once it is {@link #READY}
+         */
+        boolean wantsAi();
+
+        /**
+         * @return boolean if the player is still connected, must not block for long
+         */
+        boolean isConnected();
+
+        /**
+         * Drops the player
+         */
+        void close();
+    }
+
+    /**
+     * Starts games for paired players
+     *
+     * @param <T> Transport specific ticket
+     */
+    interface Listener<T> {
+        /**
+         * @param first  Player that waited longer, moves first
+         * @param second Player that joined later
+         */
+        void paired(T first, T second);
+
+        /**
+         * @param player Player that gets the AI as second seat
+         */
+        void pairedWithAi(T player);
+    }
+
+    // How often the waiting player is checked while no one else arrives
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final Queue<Entry<T>> queue = new ConcurrentLinkedQueue<>();
+    private final Listener<T> listener;
+    private final long timeout, aiFallback, handshake;
+    private volatile Thread worker;
+    private volatile boolean stopped;
+
+    // Only touched by the pairing thread
+    private final ArrayDeque<Entry<T>> greeting = new ArrayDeque<>();
+    private final Map<Variant, Entry<T>> waiting = new HashMap<>();
+
+    /**
+     * Instantiates a matchmaker, call {@link #start()} to begin pairing
+     *
+     * @param listener   Starts games for paired players
+     * @param timeout    Milliseconds a player may wait before being dropped, 0 waits forever
+     * @param aiFallback Milliseconds a player waits before playing the AI, 0 never falls back to it, players that
+     *                   ask for the AI get it either way
+     * @param handshake  Milliseconds a client has to say hello before it is taken for a string protocol client
+     */
+    Matchmaker(Listener<T> listener, long timeout, long aiFallback, long handshake) {
+        this.listener = listener;
+        this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+        this.aiFallback = TimeUnit.MILLISECONDS.toNanos(aiFallback);
+        this.handshake = TimeUnit.MILLISECONDS.toNanos(handshake);
+    }
+
+    /**
+     * Starts the pairing thread
+     */
+    void start() {
+        Thread t = new Thread(this, "connect4-matchmaker");
+        t.setDaemon(true);
+        worker = t;
+        t.start();
+    }
+
+    /**
+     * Adds a player, safe to call from any thread
+     *
+     * @param ticket The waiting player
+     */
+    void enqueue(T ticket) {
+        queue.add(new Entry<>(ticket, System.nanoTime()));
+        LockSupport.unpark(worker);
+        if (stopped) // Accepted while stopping, the pairing thread may have cleared the queue already
+            dropQueued();
+    }
+
+    /**
+     * Stops pairing and drops every waiting player, returns once no game can be started any more
+     *
+     * @throws InterruptedException If interrupted while the pairing thread finishes
+     */
+    void stop() throws InterruptedException {
+        stopped = true;
+        Thread t = worker;
+        if (t == null)
+            return;
+        LockSupport.unpark(t);
+        t.join();
+    }
+
+    @Override
+    public void run() {
+        while (!stopped && !Thread.currentThread().isInterrupted()) {
+            Entry<T> next;
+            while ((next = queue.poll()) != null)
+                greeting.add(next);
+
+            // Pair in the order the protocol of each client became known
+            Iterator<Entry<T>> it = greeting.iterator();
+            while (it.hasNext()) {
+                Entry<T> entry = it.next();
+                int state = entry.ticket.handshake(System.nanoTime() - entry.since >= handshake);
+                if (state == Ticket.WAITING)
+                    continue;
+                it.remove();
+                if (state == Ticket.GONE)
+                    drop(entry, "left during matchmaking");
+                else
+                    ready(entry);
+            }
+
+            Iterator<Entry<T>> waits = waiting.values().iterator();
+            while (waits.hasNext()) {
+                Entry<T> entry = waits.next();
+                long waited = System.nanoTime() - entry.since;
+                if (!entry.ticket.isConnected()) {
+                    waits.remove();
+                    drop(entry, "left during matchmaking");
+                } else if (aiFallback > 0 && waited >= aiFallback) {
+                    waits.remove();
+                    listener.pairedWithAi(entry.ticket);
+                } else if (timeout > 0 && waited >= timeout) {
+                    waits.remove();
+                    drop(entry, "timed out waiting for an opponent");
+                }
+            }
+
+            LockSupport.parkNanos(this, TICK);
+        }
+
+        for (Entry<T> entry : greeting)
+            drop(entry, "dropped, the server is shutting down");
+        greeting.clear();
+        for (Entry<T> entry : waiting.values())
+            drop(entry, "dropped, the server is shutting down");
+        waiting.clear();
+        dropQueued();
+    }
+
+    /**
+     * Drops the players still queued after pairing stopped, from whichever thread gets to them first
+     */
+    private void dropQueued() {
+        Entry<T> entry;
+        while ((entry = queue.poll()) != null)
+            drop(entry, "dropped, the server is shutting down");
+    }
+
+    /**
+     * Pairs a player whose protocol is known with the AI if it asked for it, else with the one waiting for
+     * the same variant, or makes it wait
+     *
+     * @param next Player ready to play
+     */
+    private void ready(Entry<T> next) {
+        if (next.ticket.wantsAi()) {
+            listener.pairedWithAi(next.ticket);
+            return;
+        }
+        Variant variant = next.ticket.getVariant();
+        Entry<T> partner = waiting.remove(variant);
+        if (partner == null) {
+            waiting.put(variant, next);
+        } else if (!partner.ticket.isConnected()) {
+            drop(partner, "left during matchmaking");
+            waiting.put(variant, next); // Requeue the partner in its place
+        } else {
+            listener.paired(partner.ticket, next.ticket);
+        }
+    }
+
+    /**
+     * @param entry  Player to drop
+     * @param reason Why, for the log
+     */
+    private void drop(Entry<T> entry, String reason) {
+        Log.info("Client " + reason);
+        Metrics.get().droppedInMatchmaking();
+        entry.ticket.close();
+    }
+
+    /**
+     * A queued ticket and when it was queued
+     *
+     * @param <T> Transport specific ticket
+     */
+    private static final class Entry<T> {
+        final T ticket;
+        final long since;
+
+        Entry(T ticket, long since) {
+            this.ticket = ticket;
+            this.since = since;
+        }
+    }
+}
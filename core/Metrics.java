@@ -0,0 +1,472 @@
+package core;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide server counters and latency histograms
+ * <p>
+ * Recording is a {@link LongAdder} increment or a {@link Histogram} bucket
+ * increment, cheap enough for every move on every thread. Readers are JMX,
+ * see {@link MetricsMBean}, and an optional plain text scrape endpoint
+ * started by {@link #serve(int)}. Latencies are recorded in nanoseconds and
+ * reported in microseconds.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+final class Metrics implements MetricsMBean {
+    /**
+     * JMX name the metrics are registered under
+     */
+    static final String OBJECT_NAME = "connect4:type=Metrics";
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            Log.warn("Could not register metrics with JMX: " + e.getMessage());
+        }
+    }
+
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder sessionsStarted = new LongAdder();
+    private final LongAdder sessionsEnded = new LongAdder();
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder invalidMoves = new LongAdder();
+    private final LongAdder wins = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder matchmakingDrops = new LongAdder();
+    private final Histogram turnRelay = new Histogram();
+    private final Histogram aiThink = new Histogram();
+    private final LongAdder aiShed = new LongAdder();
+    private final LongAdder gamesLogged = new LongAdder();
+    private final LongAdder gameLogDrops = new LongAdder();
+    private final LongAdder gameLogSyncs = new LongAdder();
+    private final Histogram gameLogSync = new Histogram();
+    private final LongAdder timeouts = new LongAdder();
+    private volatile boolean draining;
+    private final LongAdder spectatorsJoined = new LongAdder();
+    private final LongAdder spectatorsLeft = new LongAdder();
+    private final LongAdder spectatorSnapshots = new LongAdder();
+    private volatile GameLog gameLog;
+    private volatile PositionCache positionCache;
+    private volatile ThinkPool thinkPool;
+
+    // Moves counted when the rate was last computed and that rate
+    private long movesAtSecond;
+    private long secondStart = System.nanoTime();
+    private long movesPerSecond;
+
+    private Metrics() {
+    }
+
+    /**
+     * Gets the metrics of this process, registering them with JMX on first use
+     *
+     * @return The server metrics
+     */
+    static Metrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts the plain text scrape endpoint on {@code /metrics}
+     *
+     * @param port Port to listen on
+     * @throws IOException If the port cannot be bound
+     */
+    void serve(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start(); // Serves on its own dispatcher thread
+        Log.info("Metrics on http://localhost:" + port + "/metrics");
+    }
+
+    /**
+     * Renders every metric and the heap and thread count of the JVM, one {@code name value} pair per line
+     *
+     * @return The scrape body
+     */
+    String scrape() {
+        StringBuilder out = new StringBuilder(1024);
+        line(out, "connect4_connections_total", getConnections());
+        line(out, "connect4_sessions_started_total", getSessionsStarted());
+        line(out, "connect4_sessions_active", getActiveSessions());
+        line(out, "connect4_moves_total", getMoves());
+        line(out, "connect4_moves_per_second", getMovesPerSecond());
+        line(out, "connect4_invalid_moves_total", getInvalidMoves());
+        line(out, "connect4_wins_total", getWins());
+        line(out, "connect4_disconnects_total", getDisconnects());
+        line(out, "connect4_matchmaking_drops_total", getMatchmakingDrops());
+        line(out, "connect4_log_dropped_total", getDroppedLogLines());
+        line(out, "connect4_games_logged_total", getGamesLogged());
+        line(out, "connect4_game_log_syncs_total", gameLogSyncs.sum());
+        line(out, "connect4_game_log_queued", getGameLogQueued());
+        line(out, "connect4_game_log_dropped_total", getGameLogDropped());
+        line(out, "connect4_ai_cache_hits_total", getAiCacheHits());
+        line(out, "connect4_ai_cache_misses_total", getAiCacheMisses());
+        PositionCache cache = positionCache;
+        line(out, "connect4_ai_cache_evictions_total", cache == null ? 0 : cache.getEvictions());
+        line(out, "connect4_ai_cache_entries", cache == null ? 0 : cache.size());
+        line(out, "connect4_ai_queued", getAiQueued());
+        line(out, "connect4_ai_shed_total", getAiShed());
+        line(out, "connect4_session_slots", getSessionSlots());
+        line(out, "connect4_session_table_bytes", getSessionTableBytes());
+        line(out, "connect4_timeouts_total", timeouts.sum());
+        line(out, "connect4_draining", draining ? 1 : 0);
+        line(out, "connect4_spectators", getSpectators());
+        line(out, "connect4_spectator_snapshots_total", spectatorSnapshots.sum());
+        quantiles(out, "connect4_turn_relay_micros", turnRelay);
+        quantiles(out, "connect4_ai_think_micros", aiThink);
+        quantiles(out, "connect4_game_log_sync_micros", gameLogSync);
+        line(out, "jvm_heap_used_bytes", ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        line(out, "jvm_threads", ManagementFactory.getThreadMXBean().getThreadCount());
+        return out.toString();
+    }
+
+    /**
+     * @param out   Scrape body
+     * @param name  Metric name
+     * @param value Metric value
+     */
+    private static void line(StringBuilder out, String name, long value) {
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * @param out  Scrape body
+     * @param name Metric name
+     * @param h    Histogram in nanoseconds, written as microsecond quantiles and a count
+     */
+    private static void quantiles(StringBuilder out, String name, Histogram h) {
+        for (String q : new String[]{"0.5", "0.9", "0.99", "0.999"}) {
+            out.append(name).append("{quantile=\"").append(q).append("\"} ")
+                    .append(micros(h.percentile(Double.parseDouble(q) * 100))).append('\n');
+        }
+        line(out, name + "_count", h.count());
+    }
+
+    /**
+     * @param nanos Nanoseconds
+     * @return Microseconds
+     */
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /**
+     * @param log Game log whose queue is reported
+     */
+    void watch(GameLog log) {
+        gameLog = log;
+    }
+
+    /**
+     * @param cache Position cache of the server AIs whose hit rate is reported
+     */
+    void watch(PositionCache cache) {
+        positionCache = cache;
+    }
+
+    /**
+     * @param pool Pool of the server AIs whose queue is reported
+     */
+    void watch(ThinkPool pool) {
+        thinkPool = pool;
+    }
+
+    /**
+     * A client was accepted
+     */
+    void connected() {
+        connections.increment();
+    }
+
+    /**
+     * A client was dropped before its game started
+     */
+    void droppedInMatchmaking() {
+        matchmakingDrops.increment();
+    }
+
+    /**
+     * A game started
+     */
+    void sessionStarted() {
+        sessionsStarted.increment();
+    }
+
+    /**
+     * A game ended, however it ended
+     */
+    void sessionEnded() {
+        sessionsEnded.increment();
+    }
+
+    /**
+     * A client left or failed during a game
+     */
+    void disconnected() {
+        disconnects.increment();
+    }
+
+    /**
+     * A valid move was played
+     */
+    void move() {
+        moves.increment();
+    }
+
+    /**
+     * A move was rejected
+     */
+    void invalidMove() {
+        invalidMoves.increment();
+    }
+
+    /**
+     * A game was won
+     */
+    void win() {
+        wins.increment();
+    }
+
+    /**
+     * @param nanos Time from reading a turn to its replies being written, AI thinking excluded
+     */
+    void turnRelayed(long nanos) {
+        turnRelay.record(nanos);
+    }
+
+    /**
+     * @param nanos Time the AI took for one move
+     */
+    void aiThought(long nanos) {
+        aiThink.record(nanos);
+    }
+
+    /**
+     * An AI move was answered without searching because the think pool was overloaded
+     */
+    void aiShed() {
+        aiShed.increment();
+    }
+
+    /**
+     * @param games Games written by one sync
+     * @param nanos Time the sync took
+     */
+    void gameLogSynced(int games, long nanos) {
+        gamesLogged.add(games);
+        gameLogSyncs.increment();
+        gameLogSync.record(nanos);
+    }
+
+    /**
+     * The server started draining, it takes no new clients
+     */
+    void draining() {
+        draining = true;
+    }
+
+    /**
+     * A session ended because a seat ran out of time
+     */
+    void timedOut() {
+        timeouts.increment();
+    }
+
+    /**
+     * A spectator started watching
+     */
+    void spectatorJoined() {
+        spectatorsJoined.increment();
+    }
+
+    /**
+     * A spectator stopped watching
+     */
+    void spectatorLeft() {
+        spectatorsLeft.increment();
+    }
+
+    /**
+     * A spectator was sent the whole game, on joining or after falling behind
+     */
+    void spectatorSnapshot() {
+        spectatorSnapshots.increment();
+    }
+
+    /**
+     * A finished game was not logged because the queue was full or the disk failed
+     */
+    void gameLogDropped() {
+        gameLogDrops.increment();
+    }
+
+    @Override
+    public long getConnections() {
+        return connections.sum();
+    }
+
+    @Override
+    public long getSessionsStarted() {
+        return sessionsStarted.sum();
+    }
+
+    @Override
+    public long getActiveSessions() {
+        return sessionsStarted.sum() - sessionsEnded.sum();
+    }
+
+    @Override
+    public long getMoves() {
+        return moves.sum();
+    }
+
+    @Override
+    public synchronized long getMovesPerSecond() {
+        long now = System.nanoTime();
+        long elapsed = now - secondStart;
+        if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+            long total = moves.sum();
+            movesPerSecond = (total - movesAtSecond) * TimeUnit.SECONDS.toNanos(1) / elapsed;
+            movesAtSecond = total;
+            secondStart = now;
+        }
+        return movesPerSecond;
+    }
+
+    @Override
+    public long getInvalidMoves() {
+        return invalidMoves.sum();
+    }
+
+    @Override
+    public long getWins() {
+        return wins.sum();
+    }
+
+    @Override
+    public long getDisconnects() {
+        return disconnects.sum();
+    }
+
+    @Override
+    public long getMatchmakingDrops() {
+        return matchmakingDrops.sum();
+    }
+
+    @Override
+    public long getDroppedLogLines() {
+        return Log.getDropped();
+    }
+
+    @Override
+    public long getGamesLogged() {
+        return gamesLogged.sum();
+    }
+
+    @Override
+    public long getGameLogQueued() {
+        GameLog log = gameLog;
+        return log == null ? 0 : log.getQueued();
+    }
+
+    @Override
+    public long getGameLogDropped() {
+        return gameLogDrops.sum();
+    }
+
+    @Override
+    public long getGameLogSyncP99Micros() {
+        return micros(gameLogSync.percentile(99));
+    }
+
+    @Override
+    public long getAiCacheHits() {
+        PositionCache cache = positionCache;
+        return cache == null ? 0 : cache.getHits();
+    }
+
+    @Override
+    public long getAiCacheMisses() {
+        PositionCache cache = positionCache;
+        return cache == null ? 0 : cache.getMisses();
+    }
+
+    @Override
+    public long getAiQueued() {
+        ThinkPool pool = thinkPool;
+        return pool == null ? 0 : pool.getQueued();
+    }
+
+    @Override
+    public long getAiShed() {
+        return aiShed.sum();
+    }
+
+    @Override
+    public long getSessionSlots() {
+        return SessionTable.get().size();
+    }
+
+    @Override
+    public long getSessionTableBytes() {
+        return SessionTable.get().getReservedBytes();
+    }
+
+    @Override
+    public boolean isDraining() {
+        return draining;
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getSpectators() {
+        return spectatorsJoined.sum() - spectatorsLeft.sum();
+    }
+
+    @Override
+    public long getTurnRelayP50Micros() {
+        return micros(turnRelay.percentile(50));
+    }
+
+    @Override
+    public long getTurnRelayP99Micros() {
+        return micros(turnRelay.percentile(99));
+    }
+
+    @Override
+    public long getAiThinkP50Micros() {
+        return micros(aiThink.percentile(50));
+    }
+
+    @Override
+    public long getAiThinkP99Micros() {
+        return micros(aiThink.percentile(99));
+    }
+}
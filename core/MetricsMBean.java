@@ -0,0 +1,144 @@
+package core;
+
+/**
+ * JMX view of the server {@link Metrics}, registered as {@value Metrics#OBJECT_NAME}
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+public interface MetricsMBean {
+    /**
+     * @return Clients accepted since start
+     */
+    long getConnections();
+
+    /**
+     * @return Games started since start
+     */
+    long getSessionsStarted();
+
+    /**
+     * @return Games currently running
+     */
+    long getActiveSessions();
+
+    /**
+     * @return Valid moves played since start, AI moves included
+     */
+    long getMoves();
+
+    /**
+     * @return Valid moves per second since the rate was last computed, at most once a second
+     */
+    long getMovesPerSecond();
+
+    /**
+     * @return Rejected moves since start
+     */
+    long getInvalidMoves();
+
+    /**
+     * @return Games won since start
+     */
+    long getWins();
+
+    /**
+     * @return Clients that left or failed during a game
+     */
+    long getDisconnects();
+
+    /**
+     * @return Clients dropped during matchmaking
+     */
+    long getMatchmakingDrops();
+
+    /**
+     * @return Log lines dropped because the console could not keep up
+     */
+    long getDroppedLogLines();
+
+    /**
+     * @return Finished games written to the game log and synced
+     */
+    long getGamesLogged();
+
+    /**
+     * @return Finished games waiting for the game log writer
+     */
+    long getGameLogQueued();
+
+    /**
+     * @return Finished games not logged because the queue was full or the disk failed
+     */
+    long getGameLogDropped();
+
+    /**
+     * @return 99th percentile microseconds of one game log sync
+     */
+    long getGameLogSyncP99Micros();
+
+    /**
+     * @return Server AI moves looked up in the shared position cache and found
+     */
+    long getAiCacheHits();
+
+    /**
+     * @return Server AI moves looked up in the shared position cache and not found
+     */
+    long getAiCacheMisses();
+
+    /**
+     * @return Server AI moves waiting for a thread of the think pool
+     */
+    long getAiQueued();
+
+    /**
+     * @return Server AI moves answered without searching because the think pool was overloaded
+     */
+    long getAiShed();
+
+    /**
+     * @return Games keeping their position in the off-heap session table
+     */
+    long getSessionSlots();
+
+    /**
+     * @return Off-heap bytes reserved by the session table, used or free
+     */
+    long getSessionTableBytes();
+
+    /**
+     * @return boolean if the server is shutting down and takes no new clients
+     */
+    boolean isDraining();
+
+    /**
+     * @return Sessions ended because a seat ran out of time
+     */
+    long getTimeouts();
+
+    /**
+     * @return Spectators currently watching a game
+     */
+    long getSpectators();
+
+    /**
+     * @return Median microseconds from reading a turn to its replies being written
+     */
+    long getTurnRelayP50Micros();
+
+    /**
+     * @return 99th percentile of {@link #getTurnRelayP50Micros()}
+     */
+    long getTurnRelayP99Micros();
+
+    /**
+     * @return Median microseconds the server AI thinks per move
+     */
+    long getAiThinkP50Micros();
+
+    /**
+     * @return 99th percentile of {@link #getAiThinkP50Micros()}
+     */
+    long getAiThinkP99Micros();
+}
@@ -0,0 +1,625 @@
+package core;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking Connect 4 server
+ * <p>
+ * The accepting thread hands clients to the {@link Matchmaker}, which gives
+ * each pair to one of a few event loops. An event loop multiplexes all of its games
+ * over one {@link Selector}, so idle or slow players cost a buffer instead of a
+ * thread. Frames are the two byte messages of {@link Protocol}, or for clients
+ * that did not say hello the {@code writeUTF}/{@code readUTF} framing, a two
+ * byte length followed by the text.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+final class NioServer {
+    // Longest frame a client may send, every valid input is a few characters
+    private static final int MAX_FRAME = 64;
+
+    private final ServerConfig config;
+    private final GameLog gameLog;
+    private final SpectatorServer spectators;
+    private final EventLoop[] loops;
+
+    /**
+     * Instantiates the server, nothing is bound until {@link #run()}
+     *
+     * @param config     Server configuration
+     * @param gameLog    Where finished games are recorded, null if nowhere
+     * @param spectators Where games can be watched, null if nowhere
+     * @throws IOException If a selector cannot be opened
+     */
+    NioServer(ServerConfig config, GameLog gameLog, SpectatorServer spectators) throws IOException {
+        this.config = config;
+        this.gameLog = gameLog;
+        this.spectators = spectators;
+        this.loops = new EventLoop[config.getLoops()];
+        for (int i = 0; i < loops.length; i++)
+            loops[i] = new EventLoop();
+    }
+
+    /**
+     * Starts the event loops and accepts clients forever
+     *
+     * @throws IOException If the server socket cannot be opened
+     */
+    void run() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            Thread t = new Thread(loops[i], "connect4-loop-" + i);
+            t.start();
+        }
+
+        Matchmaker<ChannelTicket> matchmaker = new Matchmaker<>(new Matchmaker.Listener<ChannelTicket>() {
+            private int next;
+
+            @Override
+            public void paired(ChannelTicket first, ChannelTicket second) {
+                start(new Connect4Match(first.getVariant()), first, second);
+            }
+
+            @Override
+            public void pairedWithAi(ChannelTicket player) {
+                start(new Connect4Match(player.getVariant(), config.newAi(), config.getThinkPool()), player, null);
+            }
+
+            private void start(Connect4Match match, ChannelTicket first, ChannelTicket second) {
+                EventLoop loop = loops[next++ % loops.length];
+                Session session = new Session(config, loop, match, first, second);
+                if (gameLog != null)
+                    session.record(gameLog);
+                if (spectators != null)
+                    match.broadcastTo(spectators);
+                Log.info("Spinning new game session" + match.getBroadcastName());
+                loop.execute(session::start);
+            }
+        }, config.getMatchTimeout(), config.getAiFallback(), config.getHandshake());
+        matchmaker.start();
+        Drain.pairing(matchmaker);
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            config.configure(server.socket());
+            server.bind(new InetSocketAddress(config.getPort()));
+            Drain.listening(server);
+            Log.info("NIO server listening on " + config.getPort() + " with " + loops.length + " event loops");
+
+            while (true) {
+                SocketChannel channel;
+                try {
+                    channel = server.accept();
+                } catch (IOException e) {
+                    if (Metrics.get().isDraining())
+                        return; // Closed by the drain, the running games go on
+                    throw e;
+                }
+                Log.info("Client is connecting...");
+                Metrics.get().connected();
+                try {
+                    config.configure(channel.socket());
+                    matchmaker.enqueue(new ChannelTicket(channel));
+                } catch (IOException e) {
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * A client waiting for a game, anything it sends early is kept for the game
+     */
+    private static final class ChannelTicket implements Matchmaker.Ticket {
+        final SocketChannel channel;
+        final ByteBuffer early = ByteBuffer.allocate(2 + MAX_FRAME);
+        int version;
+        Variant variant = Variant.STANDARD;
+        boolean ai;
+
+        ChannelTicket(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            channel.configureBlocking(false);
+        }
+
+        @Override
+        public int handshake(boolean giveUp) {
+            try {
+                if (channel.read(early) < 0)
+                    return GONE;
+            } catch (IOException e) {
+                return GONE;
+            }
+
+            if (early.position() == 0)
+                return giveUp ? READY : WAITING;
+            if ((early.get(0) & 0xFF) != Protocol.HELLO)
+                return READY;
+            if (early.position() < 2)
+                return WAITING;
+
+            int asked = early.get(1) & 0xFF;
+            int length = Protocol.helloLength(asked);
+            if (early.position() < length)
+                return WAITING;
+
+            version = Math.min(asked, Protocol.VERSION);
+            if (asked >= Protocol.VERSION_VARIANTS)
+                variant = Variant.of(early.get(2), early.get(3), early.get(4));
+            if (asked >= Protocol.VERSION_OPPONENT)
+                ai = early.get(5) == Protocol.OPPONENT_AI;
+            early.flip();
+            early.position(length);
+            early.compact();
+
+            ByteBuffer ack = ByteBuffer.allocate(2 + Protocol.VARIANT_BYTES);
+            ack.put((byte) Protocol.HELLO).put((byte) version);
+            if (version >= Protocol.VERSION_VARIANTS)
+                ack.put((byte) variant.columns).put((byte) variant.rows).put((byte) variant.connect);
+            ack.flip();
+            try {
+                // A few bytes always fit an empty send buffer
+                channel.write(ack);
+            } catch (IOException e) {
+                return GONE;
+            }
+            return READY;
+        }
+
+        @Override
+        public Variant getVariant() {
+            return variant;
+        }
+
+        @Override
+        public boolean wantsAi() {
+            return ai;
+        }
+
+        /**
+         * @return Address of the client, for the game log
+         */
+        String getName() {
+            return String.valueOf(channel.socket().getRemoteSocketAddress());
+        }
+
+        @Override
+        public boolean isConnected() {
+            try {
+                return !early.hasRemaining() || channel.read(early) >= 0;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.warn("Could not close server correctly... Check task manager.");
+            }
+        }
+    }
+
+    /**
+     * Thread running the selector of a share of the games
+     */
+    private static final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        /**
+         * Runs {@code task} on the loop thread
+         *
+         * @param task Task to run, gets the selector of this loop
+         */
+        void execute(Task task) {
+            tasks.add(() -> task.run(selector));
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    Log.warn("Event loop failed: " + e.getMessage());
+                    return;
+                }
+
+                Runnable task;
+                while ((task = tasks.poll()) != null)
+                    task.run();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Conn conn = (Conn) key.attachment();
+                    conn.session.onReady(conn, key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Work handed to an event loop
+     */
+    private interface Task {
+        /**
+         * @param selector Selector of the loop running the task
+         */
+        void run(Selector selector);
+    }
+
+    /**
+     * One seat of a game, a channel with its partial input and pending output
+     */
+    private static final class Conn {
+        /**
+         * Returned by {@link #nextFrame()} while no complete frame has arrived
+         */
+        static final int NONE = Integer.MIN_VALUE;
+
+        final Session session;
+        final int seat;
+        final SocketChannel channel;
+        final boolean binary;
+        final String name;
+        final ByteBuffer in = ByteBuffer.allocate(2 + MAX_FRAME);
+        ByteBuffer out = ByteBuffer.allocate(64);
+        SelectionKey key;
+
+        Conn(Session session, int seat, ChannelTicket ticket) {
+            this.session = session;
+            this.seat = seat;
+            this.channel = ticket.channel;
+            this.binary = ticket.version > 0;
+            this.name = ticket.getName();
+            ticket.early.flip();
+            in.put(ticket.early);
+        }
+
+        /**
+         * @param pingsOnly boolean if only a heartbeat may be taken, any other input is left for the seat's turn
+         * @return The next complete input as decoded by {@link Protocol}, {@link #NONE} if none has fully arrived
+         * @throws IOException If the client announced an oversized frame
+         */
+        int nextFrame(boolean pingsOnly) throws IOException {
+            if (in.position() < 2)
+                return NONE;
+
+            int frame, input;
+            if (binary) {
+                frame = 2;
+                input = Protocol.decode(in.get(0) & 0xFF, in.get(1));
+            } else {
+                int len = ((in.get(0) & 0xFF) << 8) | (in.get(1) & 0xFF);
+                if (len > MAX_FRAME)
+                    throw new IOException("Frame too long: " + len);
+                if (in.position() < 2 + len)
+                    return NONE;
+                frame = 2 + len;
+                input = Protocol.parse(new String(in.array(), 2, len, StandardCharsets.UTF_8));
+            }
+            if (pingsOnly && input != Protocol.IN_PING)
+                return NONE;
+
+            in.flip();
+            in.position(frame);
+            in.compact();
+            return input;
+        }
+
+        /**
+         * Queues one message for writing in the client's protocol
+         *
+         * @param op    Opcode
+         * @param value Player index, status code or column
+         */
+        void queue(int op, int value) {
+            if (binary) {
+                ensure(2);
+                out.put((byte) op).put((byte) value);
+            } else {
+                byte[] bytes = Protocol.toText(op, value).getBytes(StandardCharsets.UTF_8);
+                ensure(2 + bytes.length);
+                out.putShort((short) bytes.length).put(bytes);
+            }
+        }
+
+        /**
+         * Grows the output buffer to take {@code bytes} more
+         *
+         * @param bytes Bytes about to be queued
+         */
+        private void ensure(int bytes) {
+            if (out.remaining() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes));
+                out.flip();
+                grown.put(out);
+                out = grown;
+            }
+        }
+
+        /**
+         * Writes as much pending output as the socket takes
+         *
+         * @throws IOException If the channel is closed
+         */
+        void flush() throws IOException {
+            if (out.position() == 0)
+                return;
+            out.flip();
+            channel.write(out);
+            out.compact();
+        }
+
+        /**
+         * Reads only while there is room and writes only while output is pending
+         */
+        void updateInterest() {
+            if (key.isValid())
+                key.interestOps((in.hasRemaining() ? SelectionKey.OP_READ : 0)
+                        | (out.position() > 0 ? SelectionKey.OP_WRITE : 0));
+        }
+    }
+
+    /**
+     * A game between two channels, or one channel and the AI, only ever touched by its event loop
+     * <p>
+     * Both seats are read all the time, so the watchdog hears both. When the
+     * timer finds a seat out of time it hands the session to the loop, which
+     * checks again since an input may have arrived in between. The AI's moves
+     * are searched on the {@link ThinkPool} and handed back to the loop, inputs
+     * arriving meanwhile wait in the buffers.
+     */
+    private static final class Session implements Connect4Match.Output {
+        private final Connect4Match match;
+        private final Conn[] seats;
+        private final Metrics metrics = Metrics.get();
+        private final Watchdog watchdog;
+        private final boolean forfeit;
+        private final EventLoop loop;
+        private boolean closed;
+        private boolean thinking;
+
+        // Inputs handled by the last pump
+        private int handled;
+
+        Session(ServerConfig config, EventLoop loop, Connect4Match match, ChannelTicket first, ChannelTicket second) {
+            this.match = match;
+            this.loop = loop;
+            seats = new Conn[]{new Conn(this, 0, first), second == null ? null : new Conn(this, 1, second)};
+            watchdog = config.newWatchdog(true, seat -> loop.execute(selector -> expire()));
+            forfeit = config.getForfeit() == ServerConfig.Forfeit.LOSS;
+        }
+
+        /**
+         * Hands the games of this session to {@code log}
+         *
+         * @param log The game log
+         */
+        void record(GameLog log) {
+            match.recordTo(log, seats[0].name, seats[1] == null ? "AI" : seats[1].name);
+        }
+
+        /**
+         * Registers both seats and sends them the player they play as
+         *
+         * @param selector Selector of the owning loop
+         */
+        void start(Selector selector) {
+            metrics.sessionStarted();
+            try {
+                for (Conn conn : seats) {
+                    if (conn == null)
+                        continue;
+                    conn.key = conn.channel.register(selector, SelectionKey.OP_READ, conn);
+                }
+                match.start(this);
+                if (watchdog != null)
+                    watchdog.start();
+                pump();
+                if (!closed)
+                    flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * Handles a selected channel
+         *
+         * @param conn Seat whose channel is ready
+         * @param key  Selection key of the channel
+         */
+        void onReady(Conn conn, SelectionKey key) {
+            if (closed)
+                return;
+            try {
+                if (key.isReadable()) {
+                    int read = conn.channel.read(conn.in);
+                    if (read < 0) {
+                        disconnected();
+                        return;
+                    }
+                    if (read > 0 && watchdog != null)
+                        watchdog.heard(conn.seat, false);
+                }
+                long start = System.nanoTime();
+                pump();
+                if (!closed) {
+                    flush();
+                    if (handled > 0)
+                        metrics.turnRelayed(System.nanoTime() - start);
+                }
+            } catch (IOException e) {
+                disconnected();
+            }
+        }
+
+        /**
+         * Feeds complete frames of the seat to move into the match, the other seat's input waits its turn
+         * except for heartbeats at its head, and all input waits while the AI thinks
+         *
+         * @throws IOException If a frame is malformed
+         */
+        private void pump() throws IOException {
+            handled = 0;
+            int in;
+            while (!closed && !thinking && (in = seats[match.getTurn()].nextFrame(false)) != Conn.NONE) {
+                if (Log.isDebug())
+                    Log.debug("Received input " + in + " from Client " + (match.getTurn() + 1));
+                if (in == Protocol.IN_PING) {
+                    heartbeat(match.getTurn());
+                    continue;
+                }
+                if (!match.handle(in, this))
+                    close(); // Terminate
+                handled++;
+                if (watchdog != null)
+                    watchdog.turn(match.getTurn(), match.getTurns());
+                if (!closed && match.isAiTurn())
+                    think();
+            }
+
+            Conn waiting = closed ? null : seats[1 - match.getTurn()];
+            while (waiting != null && waiting.nextFrame(true) != Conn.NONE)
+                heartbeat(waiting.seat);
+        }
+
+        /**
+         * Asks for the AI's move, it is played on the loop once it arrives
+         */
+        private void think() {
+            thinking = true;
+            match.think(column -> loop.execute(selector -> moved(column)));
+        }
+
+        /**
+         * Plays the move the AI came up with, then goes on with any input that arrived meanwhile
+         *
+         * @param column The AI's move
+         */
+        private void moved(int column) {
+            if (closed)
+                return;
+            thinking = false;
+            try {
+                match.handle(column, this);
+                if (watchdog != null)
+                    watchdog.turn(match.getTurn(), match.getTurns());
+                if (match.isAiTurn())
+                    think();
+                pump();
+                if (!closed)
+                    flush();
+            } catch (IOException e) {
+                disconnected();
+            }
+        }
+
+        /**
+         * @param seat Seat a heartbeat came from
+         */
+        private void heartbeat(int seat) {
+            if (watchdog != null)
+                watchdog.heard(seat, true);
+        }
+
+        /**
+         * Ends the game if a seat is still out of time now that the loop got to it, otherwise watches on
+         */
+        private void expire() {
+            if (closed)
+                return;
+            int seat = watchdog.expired(System.nanoTime());
+            if (seat < 0) {
+                watchdog.start();
+                return;
+            }
+            Log.info("Client " + (seat + 1) + " ran out of time closing");
+            metrics.timedOut();
+            try {
+                match.timeOut(seat, forfeit, this);
+            } catch (IOException e) {
+                // Only queued, written below
+            }
+            for (Conn conn : seats) {
+                try {
+                    if (conn != null)
+                        conn.flush();
+                } catch (IOException e) {
+                    // This seat is gone, the other may still listen
+                }
+            }
+            close();
+        }
+
+        @Override
+        public void send(int seat, int op, int value) {
+            seats[seat].queue(op, value);
+        }
+
+        /**
+         * Writes pending output of both seats
+         *
+         * @throws IOException If a channel is closed
+         */
+        private void flush() throws IOException {
+            for (Conn conn : seats) {
+                if (conn != null) {
+                    conn.flush();
+                    conn.updateInterest();
+                }
+            }
+        }
+
+        /**
+         * Ends the game because a seat left or failed
+         */
+        private void disconnected() {
+            Log.info("Client terminated connection closing");
+            metrics.disconnected();
+            close();
+        }
+
+        /**
+         * Closes both channels
+         */
+        private void close() {
+            if (closed)
+                return;
+            closed = true;
+            if (watchdog != null)
+                watchdog.stop();
+            metrics.sessionEnded();
+            match.close();
+            for (Conn conn : seats) {
+                if (conn == null)
+                    continue;
+                try {
+                    conn.channel.close();
+                } catch (IOException e) {
+                    Log.warn("Could not close server correctly... Check task manager.");
+                }
+            }
+        }
+    }
+}
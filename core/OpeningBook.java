@@ -0,0 +1,242 @@
+package core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Opening book for the computer player
+ * <p>
+ * A binary file mapping canonical position keys to best moves for the first
+ * few plies. A position and its mirror image share one entry, the smaller of
+ * both keys. The file is memory mapped on the first lookup, creating a book
+ * never touches the disk.
+ * <p>
+ * File layout: magic, version, width, height, plies, entry count, the sorted
+ * keys as {@code long}s followed by one best column {@code byte} per key.
+ * Run {@link #main(String[])} to generate a book with the engine.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+public class OpeningBook {
+    /**
+     * System property holding the path of the default book
+     */
+    public static final String PATH_PROPERTY = "connect4.book";
+
+    private static final int MAGIC = 0x43344250; // C4BP
+    private static final int VERSION = 1;
+    private static final int HEADER = 4 + 4 + 1 + 1 + 1 + 4;
+
+    private static final OpeningBook DEFAULT = new OpeningBook(Paths.get(System.getProperty(PATH_PROPERTY, "connect4.book")));
+
+    private final Path path;
+    private volatile ByteBuffer data;
+    private volatile boolean loaded;
+    private int width, height, plies, count;
+
+    /**
+     * Instantiates a book, the file is read on the first lookup
+     *
+     * @param path Book file
+     */
+    public OpeningBook(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Gets the book at {@code -Dconnect4.book}, {@code connect4.book} in the working directory by default
+     *
+     * @return The default book, lookups miss if the file does not exist
+     */
+    public static OpeningBook getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Looks up the best move of a position
+     *
+     * @param board  Board to look up
+     * @param player Player index to move
+     * @return Zero based best column, -1 if the position is not in the book
+     */
+    int lookup(Board board, int player) {
+        ByteBuffer buf = map();
+        if (buf == null || board.getWidth() != width || board.getHeight() != height
+                || board.getConnect() != Connect4.DEFAULT_CONNECT || board.getMoves() >= plies)
+            return -1;
+
+        long key = board.key(player), mirror = board.mirrorKey(player);
+        int i = find(buf, Math.min(key, mirror));
+        if (i < 0)
+            return -1;
+
+        int move = buf.get(HEADER + count * 8 + i);
+        if (move < 0 || move >= width)
+            return -1; // A corrupt entry, searched instead
+        return key <= mirror ? move : width - 1 - move;
+    }
+
+    /**
+     * Binary search over the sorted keys
+     *
+     * @param buf Mapped book
+     * @param key Canonical key
+     * @return Entry index of {@code key}, -1 if it is missing
+     */
+    private int find(ByteBuffer buf, long key) {
+        int lo = 0, hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long k = buf.getLong(HEADER + mid * 8);
+            if (k < key)
+                lo = mid + 1;
+            else if (k > key)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Maps the file on first use
+     *
+     * @return The mapped book, null if the file is missing, of another format or truncated
+     */
+    private ByteBuffer map() {
+        if (loaded)
+            return data;
+
+        synchronized (this) {
+            if (!loaded) {
+                try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+                    long size = ch.size();
+                    if (size > Integer.MAX_VALUE) {
+                        Log.warn("Opening book " + path + " is larger than 2 GB, playing without it");
+                        return null;
+                    }
+                    MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    if (size >= HEADER && buf.getInt(0) == MAGIC && buf.getInt(4) == VERSION) {
+                        int w = buf.get(8), h = buf.get(9), p = buf.get(10), n = buf.getInt(11);
+                        if (w < 1 || w > Variant.MAX_SIZE || h < 1 || h > Variant.MAX_SIZE || p < 0
+                                || n < 0 || size < HEADER + n * 9L) {
+                            Log.warn("Opening book " + path + " is corrupt, playing without it");
+                        } else {
+                            width = w;
+                            height = h;
+                            plies = p;
+                            count = n;
+                            data = buf;
+                        }
+                    }
+                } catch (IOException e) {
+                    data = null; // No book, the engine searches every move
+                } catch (RuntimeException e) {
+                    data = null;
+                    Log.warn("Could not map opening book " + path + ", playing without it: " + e);
+                } finally {
+                    loaded = true; // Tried once, a failed book is never retried
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Generates a book with the engine, every position up to {@code plies} with O to move first
+     *
+     * @param args Output file, plies (default 6) and milliseconds of search per position (default 500)
+     * @throws IOException If the book cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java core.OpeningBook <file> [plies] [millis]");
+            return;
+        }
+        Path out = Paths.get(args[0]);
+        int plies = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+        long millis = args.length > 2 ? Long.parseLong(args[2]) : 500;
+
+        // Canonical key to the moves reaching it
+        Map<Long, String> positions = new HashMap<>();
+        Connect4 start = new Connect4();
+        collect(start.copyBoard(), 0, plies, "", positions);
+        System.out.println(positions.size() + " positions to search");
+
+        Connect4ComputerPlayer ai = new Connect4ComputerPlayer(millis, Long.MAX_VALUE, Connect4ComputerPlayer.DEFAULT_TABLE_SIZE,
+                Runtime.getRuntime().availableProcessors());
+        ai.setOpeningBook(null);
+        long[] keys = new long[positions.size()];
+        Map<Long, Integer> moves = new HashMap<>();
+        int n = 0;
+        for (Map.Entry<Long, String> e : positions.entrySet()) {
+            // A fresh game per position, a reset board keeps the player to move of the last one
+            Connect4 game = new Connect4();
+            game.playMoves(e.getValue());
+
+            // Store the move for the canonical orientation
+            Board board = game.copyBoard();
+            int player = game.getPlayerIndex();
+            int move = Integer.parseInt(ai.generate(game)) - 1;
+            if (board.key(player) > board.mirrorKey(player))
+                move = board.getWidth() - 1 - move;
+            keys[n++] = e.getKey();
+            moves.put(e.getKey(), move);
+            if (n % 100 == 0)
+                System.out.println(n + "/" + keys.length);
+        }
+        ai.shutdown();
+
+        Arrays.sort(keys);
+        try (DataOutputStream dOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(out)))) {
+            dOut.writeInt(MAGIC);
+            dOut.writeInt(VERSION);
+            dOut.writeByte(start.getColumnBoardSize());
+            dOut.writeByte(start.getRowBoardSize());
+            dOut.writeByte(plies);
+            dOut.writeInt(keys.length);
+            for (long k : keys)
+                dOut.writeLong(k);
+            for (long k : keys)
+                dOut.writeByte(moves.get(k));
+        }
+        System.out.println("Wrote " + keys.length + " positions to " + out);
+    }
+
+    /**
+     * Collects every position with fewer than {@code plies} moves that is not already decided
+     *
+     * @param board     Board to expand, it is played on and restored
+     * @param player    Player index to move
+     * @param plies     Depth of the book
+     * @param moves     Moves reaching {@code board}, 1 based columns
+     * @param positions Canonical key to moves, first path found wins
+     */
+    private static void collect(Board board, int player, int plies, String moves, Map<Long, String> positions) {
+        if (board.getMoves() >= plies)
+            return;
+        if (positions.putIfAbsent(Math.min(board.key(player), board.mirrorKey(player)), moves) != null)
+            return;
+
+        for (int c = 0; c < board.getWidth(); c++) {
+            if (!board.canPlay(c))
+                continue;
+            int r = board.play(c, player);
+            if (!board.isWinAt(r, c))
+                collect(board, 1 - player, plies, moves + (c + 1), positions);
+            board.undo(c, player);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide cache of searched positions shared by every AI of the server
+ * <p>
+ * Keys are canonical, a position and its left to right mirror share one
+ * entry, and include the board size so variants never mix. An entry holds the
+ * best move in the canonical orientation, its score and the depth it was
+ * searched to, or whether the position was solved. An AI plays an entry
+ * instead of searching once it is solved or at least as deep as a search with
+ * the AI's time budget usually gets at that board size and move number,
+ * which the cache learns from the searches it is given.
+ * <p>
+ * The slots are split into stripes with one lock each, a key hashes to one
+ * stripe and to a window of {@link #WAYS} slots in it. A full window evicts
+ * with CLOCK: the hand skips and clears slots read since it last passed and
+ * replaces the first one that was not.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+final class PositionCache {
+    // Slots a key may live in, searched in order
+    private static final int WAYS = 8;
+
+    // Bytes per slot, key, entry and reference bit
+    private static final int SLOT_BYTES = 17;
+
+    // Entry layout: move in bits 0-7, depth in 8-23, solved flag, valid flag, score in the upper half
+    private static final long SOLVED = 1L << 24, VALID = 1L << 25;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // Depth searches reached by time budget, board size and move number, a running average
+    private final ConcurrentHashMap<Long, Integer> expected = new ConcurrentHashMap<>();
+
+    /**
+     * Instantiates an empty cache
+     *
+     * @param megabytes Memory for the cache, rounded down to a power of two amount of slots
+     */
+    PositionCache(int megabytes) {
+        if (megabytes <= 0)
+            throw new IllegalArgumentException("Cache size must be positive: " + megabytes);
+        long slots = Long.highestOneBit(megabytes * 1024L * 1024L / SLOT_BYTES);
+        int stripeCount = (int) Math.min(64, slots / WAYS);
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++)
+            stripes[i] = new Stripe((int) Math.min(slots / stripeCount, 1 << 26));
+        stripeMask = stripeCount - 1;
+    }
+
+    /**
+     * Looks a position up
+     *
+     * @param board  The position
+     * @param player Player index to move
+     * @return The packed entry with the move in the orientation of {@code board}, 0 if there is none
+     */
+    long probe(Board board, int player) {
+        long key = board.key(player), mirror = board.mirrorKey(player);
+        long canonical = mix(Math.min(key, mirror), board);
+        Stripe stripe = stripes[(int) (canonical >>> 32) & stripeMask];
+        long entry;
+        synchronized (stripe) {
+            entry = stripe.get(canonical);
+        }
+        if (entry == 0) {
+            misses.increment();
+            return 0;
+        }
+        hits.increment();
+        if (key > mirror)
+            entry = (entry & ~0xFFL) | (board.getWidth() - 1 - move(entry));
+        return entry;
+    }
+
+    /**
+     * Stores a search result, a deeper or solved entry already there is kept
+     *
+     * @param board  The position searched
+     * @param player Player index to move
+     * @param move   Zero based best column
+     * @param score  Score from the view of {@code player}
+     * @param depth  Depth searched in plies
+     * @param solved boolean if the score is exact, a forced result or a search to the end of the game
+     */
+    void store(Board board, int player, int move, int score, int depth, boolean solved) {
+        long key = board.key(player), mirror = board.mirrorKey(player);
+        long canonical = mix(Math.min(key, mirror), board);
+        if (key > mirror)
+            move = board.getWidth() - 1 - move;
+        long entry = (long) score << 32 | VALID | (solved ? SOLVED : 0) | (long) Math.min(depth, 0xFFFF) << 8 | move;
+        Stripe stripe = stripes[(int) (canonical >>> 32) & stripeMask];
+        synchronized (stripe) {
+            if (stripe.put(canonical, entry))
+                evictions.increment();
+        }
+    }
+
+    /**
+     * @param board      The position
+     * @param timeBudget Milliseconds the AI may think per move
+     * @return Depth a search with that budget usually reaches at the board size and move number of
+     * {@code board}, 0 until one was {@link #searched(Board, long, int) recorded}
+     */
+    int expectedDepth(Board board, long timeBudget) {
+        Integer depth = expected.get(depthKey(board, timeBudget));
+        return depth == null ? 0 : depth;
+    }
+
+    /**
+     * Records how deep a search that had its whole time budget got
+     *
+     * @param board      The position searched
+     * @param timeBudget Milliseconds the AI may think per move
+     * @param depth      Depth reached in plies
+     */
+    void searched(Board board, long timeBudget, int depth) {
+        expected.merge(depthKey(board, timeBudget), depth, (old, d) -> (3 * old + d + 2) / 4);
+    }
+
+    /**
+     * @param board      The position
+     * @param timeBudget Milliseconds the AI may think per move
+     * @return Key of the expected depth, board sizes take 6 bits each and move numbers 11
+     */
+    private static long depthKey(Board board, long timeBudget) {
+        return (((timeBudget * 64 + board.getWidth()) * 64 + board.getHeight()) * 64 + board.getConnect()) << 11
+                | board.getMoves();
+    }
+
+    /**
+     * @param entry Packed entry
+     * @return Zero based best column
+     */
+    static int move(long entry) {
+        return (int) (entry & 0xFF);
+    }
+
+    /**
+     * @param entry Packed entry
+     * @return Depth searched in plies
+     */
+    static int depth(long entry) {
+        return (int) (entry >>> 8) & 0xFFFF;
+    }
+
+    /**
+     * @param entry Packed entry
+     * @return Score from the view of the player to move
+     */
+    static int score(long entry) {
+        return (int) (entry >> 32);
+    }
+
+    /**
+     * @param entry Packed entry
+     * @return boolean if the score is exact
+     */
+    static boolean isSolved(long entry) {
+        return (entry & SOLVED) != 0;
+    }
+
+    /**
+     * @return Lookups that found an entry
+     */
+    long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return Lookups that found nothing
+     */
+    long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return Entries replaced to make room
+     */
+    long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return Entries held
+     */
+    long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Folds the board size into a key, bitboard keys only tell positions of one size apart
+     *
+     * @param key   Canonical position key
+     * @param board The position
+     * @return Key unique over every variant, spread over all bits
+     */
+    private static long mix(long key, Board board) {
+        long h = key ^ ((board.getWidth() * 64L + board.getHeight()) * 64L + board.getConnect()) * 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 31)) * 0xBF58476D1CE4E5B9L;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * One lock's share of the slots
+     */
+    private static final class Stripe {
+        final long[] keys;
+        final long[] entries;
+        final boolean[] referenced;
+        final int mask;
+        int size, hand;
+
+        Stripe(int slots) {
+            keys = new long[slots];
+            entries = new long[slots];
+            referenced = new boolean[slots];
+            mask = slots - 1;
+        }
+
+        /**
+         * @param key Mixed key
+         * @return The entry, 0 if there is none
+         */
+        long get(long key) {
+            int base = (int) key & mask;
+            for (int i = 0; i < WAYS; i++) {
+                int slot = (base + i) & mask;
+                if (entries[slot] != 0 && keys[slot] == key) {
+                    referenced[slot] = true;
+                    return entries[slot];
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * @param key   Mixed key
+         * @param entry Packed entry
+         * @return boolean if another entry was evicted
+         */
+        boolean put(long key, long entry) {
+            int base = (int) key & mask, free = -1;
+            for (int i = 0; i < WAYS; i++) {
+                int slot = (base + i) & mask;
+                if (entries[slot] == 0) {
+                    if (free < 0)
+                        free = slot;
+                } else if (keys[slot] == key) {
+                    long old = entries[slot];
+                    if (isSolved(old) && !isSolved(entry) || !isSolved(entry) && depth(old) > depth(entry))
+                        return false;
+                    entries[slot] = entry;
+                    return false;
+                }
+            }
+            if (free >= 0) {
+                keys[free] = key;
+                entries[free] = entry;
+                referenced[free] = false;
+                size++;
+                return false;
+            }
+
+            // Second chance over the window, the hand of the stripe moves on with every eviction
+            while (true) {
+                int slot = (base + (hand++ & (WAYS - 1))) & mask;
+                if (referenced[slot]) {
+                    referenced[slot] = false;
+                    continue;
+                }
+                keys[slot] = key;
+                entries[slot] = entry;
+                return true;
+            }
+        }
+    }
+}
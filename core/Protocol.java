@@ -0,0 +1,194 @@
+package core;
+
+/**
+ * Wire protocol between {@link Connect4Server} and its clients
+ * <p>
+ * A client opens with {@link #HELLO} and the highest version it speaks, the
+ * server answers {@link #HELLO} and the version both will use. From version
+ * 2 on the client's hello is followed by the columns, rows and pieces in a
+ * row it wants to play, and the server's answer by the variant it actually
+ * plays, the classic board if it does not play the one asked for. Players
+ * are only paired with players of the same variant. From version 3 on the
+ * client's hello ends with the opponent it wants, {@link #OPPONENT_AI} to
+ * play the server AI right away instead of waiting for a player. From then on every
+ * message is two bytes, an opcode and a column or status. Clients that do
+ * not say hello speak the original string protocol, one {@code writeUTF} per
+ * message ("O", "X", "0", "1", "2", "-2", a column, "r", "q" or "p"), on the
+ * classic board.
+ * <p>
+ * A client may send {@link #OP_PING} heartbeats at any time, they are never
+ * answered. Once it did, the server expects to hear from it within its idle
+ * timeout. The seat to move always has to move within the turn timeout.
+ * Either way a seat out of time ends the game for both seats with
+ * {@link #TIMEOUT}.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+public final class Protocol {
+    /**
+     * First byte of the handshake, no string frame can start with it
+     */
+    public static final int HELLO = 0xC4;
+
+    /**
+     * Highest protocol version the server speaks
+     */
+    public static final int VERSION = 3;
+
+    /**
+     * First version whose handshake carries the variant
+     */
+    public static final int VERSION_VARIANTS = 2;
+
+    /**
+     * Bytes after the version in a hello of {@link #VERSION_VARIANTS} or later: columns, rows and pieces in a row
+     */
+    public static final int VARIANT_BYTES = 3;
+
+    /**
+     * First version whose handshake carries the opponent, one byte after the variant
+     */
+    public static final int VERSION_OPPONENT = 3;
+
+    /**
+     * Opponents a client can ask for in the hello, another player or the server AI
+     */
+    public static final int OPPONENT_PLAYER = 0, OPPONENT_AI = 1;
+
+    /**
+     * Server to client, the player the client plays as, 0 for O and 1 for X
+     */
+    public static final int OP_PLAYER = 1;
+
+    /**
+     * Server to client, one of the status codes below
+     */
+    public static final int OP_STATUS = 2;
+
+    /**
+     * Both ways, a 1 based column
+     */
+    public static final int OP_MOVE = 3;
+
+    /**
+     * Client to server, reset the board
+     */
+    public static final int OP_RESET = 4;
+
+    /**
+     * Client to server, leave the game
+     */
+    public static final int OP_QUIT = 5;
+
+    /**
+     * Server to spectator, the game so far: the value is the player who moved first and is
+     * followed by a two byte move count and that many columns, one byte each
+     */
+    public static final int OP_BOARD = 6;
+
+    /**
+     * Client to server, a heartbeat, the value is ignored
+     */
+    public static final int OP_PING = 7;
+
+    /**
+     * Status codes, same values as the string protocol
+     */
+    public static final int VALID = 0, INVALID = 1, ERROR = -1, WIN = -2;
+
+    /**
+     * Status code, a seat ran out of time and the game is over, the connection is closed next
+     */
+    public static final int TIMEOUT = 2;
+
+    /**
+     * Inputs the server hands to a match besides columns, and {@link #IN_PING} that only transports see
+     */
+    static final int IN_INVALID = 0, IN_RESET = -1, IN_QUIT = -2, IN_PING = -3;
+
+    // Preallocated string protocol messages for small numbers
+    private static final String[] NUMBERS = new String[66];
+    private static final String[] PLAYERS = {"O", "X"};
+
+    static {
+        for (int i = 0; i < NUMBERS.length; i++)
+            NUMBERS[i] = Integer.toString(i - 2);
+    }
+
+    private Protocol() {
+    }
+
+    /**
+     * @param asked Version in a client's hello
+     * @return Bytes of that hello, including the first two
+     */
+    static int helloLength(int asked) {
+        if (asked >= VERSION_OPPONENT)
+            return 3 + VARIANT_BYTES;
+        return asked >= VERSION_VARIANTS ? 2 + VARIANT_BYTES : 2;
+    }
+
+    /**
+     * Parses a string protocol input without throwing
+     *
+     * @param s Input as read by {@code readUTF}
+     * @return A column, {@link #IN_RESET}, {@link #IN_QUIT}, {@link #IN_PING} or {@link #IN_INVALID}
+     */
+    static int parse(String s) {
+        if (s.equals("r"))
+            return IN_RESET;
+        if (s.equals("q"))
+            return IN_QUIT;
+        if (s.equals("p"))
+            return IN_PING;
+        if (s.isEmpty() || s.length() > 3)
+            return IN_INVALID;
+
+        int column = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                return IN_INVALID;
+            column = column * 10 + (c - '0');
+        }
+        return column;
+    }
+
+    /**
+     * Decodes a binary input
+     *
+     * @param op    Opcode
+     * @param value Column for {@link #OP_MOVE}
+     * @return A column, {@link #IN_RESET}, {@link #IN_QUIT}, {@link #IN_PING} or {@link #IN_INVALID}
+     */
+    static int decode(int op, int value) {
+        switch (op) {
+            case OP_MOVE:
+                return value > 0 ? value : IN_INVALID;
+            case OP_RESET:
+                return IN_RESET;
+            case OP_QUIT:
+                return IN_QUIT;
+            case OP_PING:
+                return IN_PING;
+            default:
+                return IN_INVALID;
+        }
+    }
+
+    /**
+     * Encodes a server message for the string protocol
+     *
+     * @param op    {@link #OP_PLAYER}, {@link #OP_STATUS} or {@link #OP_MOVE}
+     * @param value Player index, status code or column
+     * @return The message text
+     */
+    static String toText(int op, int value) {
+        if (op == OP_PLAYER)
+            return PLAYERS[value];
+        if (value >= -2 && value < NUMBERS.length - 2)
+            return NUMBERS[value + 2];
+        return Integer.toString(value);
+    }
+}
@@ -0,0 +1,565 @@
+package core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entry point of a cluster, spreads new games over several {@link Connect4Server} nodes
+ * <p>
+ * Clients connect to the router as they would to a server. The router reads
+ * the hello to learn the variant and forms games the way one server would:
+ * the first client of a variant opens a game on a node, the next client of
+ * that variant is sent to the same node, whose matchmaker pairs the two.
+ * A client asking for the server AI opens a game no one joins. A new game goes to a node by consistent hashing of its id with bounded loads,
+ * see {@link HashRing}, the load of a node being its running games as the
+ * router counts them or as the node reports them, whichever is higher. From
+ * then on the router only copies bytes both ways.
+ * <p>
+ * A poller reads the metrics endpoint of every node for its active sessions
+ * and whether it is draining. Nodes that are down or draining get no new
+ * games. A node refusing a connection is taken for down until it answers a
+ * poll again, and the client is sent to another node.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+public final class Router implements Runnable {
+    // Milliseconds between two looks at clients that did not say hello yet
+    private static final long TICK = 20;
+
+    // Bytes buffered per direction of a client, every message is a few bytes
+    private static final int BUFFER = 512;
+
+    private final int port;
+    private final double loadFactor;
+    private final long handshakeNanos;
+    private final long pollMillis;
+    private volatile HashRing<Node> ring;
+
+    // Only touched by the router thread
+    private final Map<Variant, Game> open = new HashMap<>();
+    private final List<Pipe> greeting = new ArrayList<>();
+    private Selector selector;
+    private long games;
+
+    /**
+     * Instantiates a router, nothing is bound until {@link #run()}
+     *
+     * @param port        Port clients connect to
+     * @param nodes       Nodes to spread games over
+     * @param loadFactor  How far above the average load a node may go, at least 1
+     * @param handshake   Milliseconds a client has to say hello before it is taken for a string protocol client
+     * @param pollMillis  Milliseconds between two polls of the nodes
+     */
+    Router(int port, Node[] nodes, double loadFactor, long handshake, long pollMillis) {
+        if (loadFactor < 1)
+            throw new IllegalArgumentException("Load factor must be at least 1: " + loadFactor);
+        this.port = port;
+        this.ring = new HashRing<>(nodes);
+        this.loadFactor = loadFactor;
+        this.handshakeNanos = TimeUnit.MILLISECONDS.toNanos(handshake);
+        this.pollMillis = pollMillis;
+    }
+
+    /**
+     * The entry point of the router
+     *
+     * @param args {@code --nodes=host:port:metricsPort,...} and optionally {@code --port=8082},
+     *             {@code --load-factor=1.25}, {@code --handshake=200}, {@code --poll=500} and {@code --log=info}
+     * @throws IOException If the port cannot be bound
+     */
+    public static void main(String[] args) throws IOException {
+        parse(args).run();
+    }
+
+    /**
+     * Parses the command line
+     *
+     * @param args Arguments of the form {@code --name=value}
+     * @return The router
+     * @throws IllegalArgumentException On unknown options, malformed values or no nodes
+     */
+    static Router parse(String[] args) {
+        int port = 8082;
+        Node[] nodes = new Node[0];
+        double loadFactor = 1.25;
+        long handshake = 200, poll = 500;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0)
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            String name = arg.substring(2, eq), value = arg.substring(eq + 1);
+            switch (name) {
+                case "port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "nodes":
+                    nodes = Arrays.stream(value.split(",")).map(Node::parse).toArray(Node[]::new);
+                    break;
+                case "load-factor":
+                    loadFactor = Double.parseDouble(value);
+                    break;
+                case "handshake":
+                    handshake = Long.parseLong(value);
+                    break;
+                case "poll":
+                    poll = Long.parseLong(value);
+                    break;
+                case "log":
+                    Log.setLevel(Log.Level.valueOf(value.toUpperCase()));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option --" + name);
+            }
+        }
+        if (nodes.length == 0)
+            throw new IllegalArgumentException("--nodes=host:port:metricsPort,... is required");
+        return new Router(port, nodes, loadFactor, handshake, poll);
+    }
+
+    /**
+     * Adds a node, safe from any thread, it gets games once a poll finds it up
+     *
+     * @param node The new node
+     */
+    synchronized void add(Node node) {
+        Node[] nodes = ring.getNodes();
+        Node[] grown = Arrays.copyOf(nodes, nodes.length + 1);
+        grown[nodes.length] = node;
+        ring = new HashRing<>(grown);
+        Log.info("Node " + node + " added");
+    }
+
+    /**
+     * @return Every node
+     */
+    Node[] getNodes() {
+        return ring.getNodes();
+    }
+
+    /**
+     * Polls the nodes, then accepts and relays clients forever
+     */
+    @Override
+    public void run() {
+        for (Node node : ring.getNodes())
+            node.poll();
+        Thread poller = new Thread(this::pollForever, "connect4-router-poll");
+        poller.setDaemon(true);
+        poller.start();
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            selector = Selector.open();
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            Log.info("Router on " + port + " in front of " + Arrays.toString(ring.getNodes()));
+
+            while (true) {
+                selector.select(TICK);
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.attachment() == null)
+                        accept(server);
+                    else
+                        onReady((Pipe) key.attachment(), key);
+                }
+                greetSilent();
+            }
+        } catch (IOException e) {
+            Log.warn("Router failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Polls every node forever
+     */
+    private void pollForever() {
+        while (true) {
+            try {
+                Thread.sleep(pollMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (Node node : ring.getNodes())
+                node.poll();
+        }
+    }
+
+    /**
+     * @param server Listening channel
+     * @throws IOException If the selector fails
+     */
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null)
+            return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Pipe p = new Pipe(channel);
+        p.clientKey = channel.register(selector, SelectionKey.OP_READ, p);
+        greeting.add(p);
+    }
+
+    /**
+     * Handles a ready client or node channel
+     *
+     * @param p   The client's pipe
+     * @param key Key of the channel that is ready
+     */
+    private void onReady(Pipe p, SelectionKey key) {
+        try {
+            if (key == p.clientKey) {
+                if (key.isReadable() && p.client.read(p.up) < 0) {
+                    if (p.server != null && p.server.isConnected())
+                        write(p.up, p.server); // A quit the client sent last
+                    close(p);
+                    return;
+                }
+                if (p.game == null) {
+                    greet(p);
+                    return;
+                }
+            } else if (key.isConnectable()) {
+                if (!connected(p))
+                    return;
+            } else if (key.isReadable()) {
+                int read = p.server.read(p.down);
+                if (read < 0) {
+                    write(p.down, p.client); // A timeout status the node sent last
+                    close(p);
+                    return;
+                }
+                p.fromNode += read;
+                if (p.fromNode > p.ack && open.get(p.variant) == p.game)
+                    open.remove(p.variant); // The node started the game without a second client, with the AI
+            }
+            flush(p);
+        } catch (IOException e) {
+            close(p);
+        }
+    }
+
+    /**
+     * Routes a client once its hello is complete
+     *
+     * @param p A client not routed yet
+     * @throws IOException If no node can be connected to
+     */
+    private void greet(Pipe p) throws IOException {
+        ByteBuffer hello = p.up;
+        if (hello.position() == 0)
+            return;
+        if ((hello.get(0) & 0xFF) != Protocol.HELLO) {
+            route(p, Variant.STANDARD, 0, false);
+            return;
+        }
+        if (hello.position() < 2)
+            return;
+        int asked = hello.get(1) & 0xFF;
+        if (hello.position() < Protocol.helloLength(asked))
+            return;
+        if (asked < Protocol.VERSION_VARIANTS) {
+            route(p, Variant.STANDARD, 2, false);
+        } else {
+            // Decided as the node decides, so both agree on the variant
+            route(p, Variant.of(hello.get(2), hello.get(3), hello.get(4)), 2 + Protocol.VARIANT_BYTES,
+                    asked >= Protocol.VERSION_OPPONENT && hello.get(5) == Protocol.OPPONENT_AI);
+        }
+    }
+
+    /**
+     * Routes clients silent for longer than the handshake as string protocol clients on the classic board
+     */
+    private void greetSilent() {
+        long now = System.nanoTime();
+        Iterator<Pipe> it = greeting.iterator();
+        while (it.hasNext()) {
+            Pipe p = it.next();
+            if (p.closed || p.game != null) {
+                it.remove();
+            } else if (now - p.since >= handshakeNanos && p.up.position() == 0) {
+                it.remove();
+                try {
+                    route(p, Variant.STANDARD, 0, false);
+                } catch (IOException e) {
+                    close(p);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a client to the open game of its variant, or opens a game on the node the ring picks
+     *
+     * @param p       The client
+     * @param variant Board it asked for
+     * @param ack     Bytes the node answers its hello with
+     * @param ai      boolean if it asked for the AI, it gets a game of its own that no one joins
+     * @throws IOException If the node cannot be connected to
+     */
+    private void route(Pipe p, Variant variant, int ack, boolean ai) throws IOException {
+        p.variant = variant;
+        p.ack = ack;
+        p.ai = ai;
+        Game game = ai ? null : open.remove(variant);
+        if (game == null || game.node.load() < 0) {
+            Node node = ring.pick(++games, loadFactor, Node::load);
+            if (node == null) {
+                Log.warn("No node takes games, closing client");
+                close(p);
+                return;
+            }
+            game = new Game(variant, node);
+            node.games++;
+            if (!ai)
+                open.put(variant, game);
+        }
+        game.clients++;
+        p.game = game;
+
+        p.server = SocketChannel.open();
+        p.server.configureBlocking(false);
+        p.server.socket().setTcpNoDelay(true);
+        boolean done = p.server.connect(game.node.address);
+        p.serverKey = p.server.register(selector, done ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, p);
+        if (done)
+            flush(p);
+    }
+
+    /**
+     * Finishes connecting to the node, a refusing node is taken for down and the client routed again
+     *
+     * @param p The client
+     * @return boolean if the client is connected to its node
+     * @throws IOException If the client cannot be routed again
+     */
+    private boolean connected(Pipe p) throws IOException {
+        try {
+            p.server.finishConnect();
+            p.serverKey.interestOps(SelectionKey.OP_READ);
+            return true;
+        } catch (IOException e) {
+            Node node = p.game.node;
+            if (node.up)
+                Log.warn("Node " + node + " refused a client, routing around it: " + e.getMessage());
+            node.up = false;
+            p.serverKey.cancel();
+            p.server.close();
+            p.server = null;
+            leave(p);
+            if (++p.attempts < ring.getNodes().length)
+                route(p, p.variant, p.ack, p.ai);
+            else
+                close(p);
+            return false;
+        }
+    }
+
+    /**
+     * Copies what each side has buffered to the other and reads only where there is room
+     *
+     * @param p The client
+     * @throws IOException If either side is closed
+     */
+    private void flush(Pipe p) throws IOException {
+        boolean linked = p.server != null && p.server.isConnected();
+        if (linked)
+            write(p.up, p.server);
+        write(p.down, p.client);
+
+        p.clientKey.interestOps((p.up.hasRemaining() ? SelectionKey.OP_READ : 0)
+                | (p.down.position() > 0 ? SelectionKey.OP_WRITE : 0));
+        if (linked)
+            p.serverKey.interestOps((p.down.hasRemaining() ? SelectionKey.OP_READ : 0)
+                    | (p.up.position() > 0 ? SelectionKey.OP_WRITE : 0));
+    }
+
+    /**
+     * @param buffer  Bytes to write, left ready for more
+     * @param channel Where they go
+     * @throws IOException If the channel is closed
+     */
+    private static void write(ByteBuffer buffer, SocketChannel channel) throws IOException {
+        if (buffer.position() == 0)
+            return;
+        buffer.flip();
+        channel.write(buffer);
+        buffer.compact();
+    }
+
+    /**
+     * Takes a client out of its game, a game without clients no longer loads its node
+     *
+     * @param p The client
+     */
+    private void leave(Pipe p) {
+        Game game = p.game;
+        if (game == null)
+            return;
+        p.game = null;
+        if (open.get(game.variant) == game)
+            open.remove(game.variant);
+        if (--game.clients == 0)
+            game.node.games--;
+    }
+
+    /**
+     * Closes both sides of a client
+     *
+     * @param p The client
+     */
+    private void close(Pipe p) {
+        if (p.closed)
+            return;
+        p.closed = true;
+        leave(p);
+        try {
+            p.client.close();
+            if (p.server != null)
+                p.server.close();
+        } catch (IOException e) {
+            Log.warn("Could not close client correctly: " + e.getMessage());
+        }
+    }
+
+    /**
+     * One server process behind the router
+     */
+    static final class Node {
+        final String host;
+        final int port, metricsPort;
+        final InetSocketAddress address;
+
+        // Written by the poller, or the router thread when the node refuses a client
+        volatile boolean up, draining;
+        volatile long reported;
+
+        // Games the router sent here that still have clients, only written by the router thread
+        volatile int games;
+
+        /**
+         * @param host        Host name
+         * @param port        Game port
+         * @param metricsPort Port of its metrics endpoint
+         */
+        Node(String host, int port, int metricsPort) {
+            this.host = host;
+            this.port = port;
+            this.metricsPort = metricsPort;
+            this.address = new InetSocketAddress(host, port);
+        }
+
+        /**
+         * @param spec {@code host:port:metricsPort}
+         * @return The node
+         */
+        static Node parse(String spec) {
+            String[] parts = spec.split(":");
+            if (parts.length != 3)
+                throw new IllegalArgumentException("Expected host:port:metricsPort but got " + spec);
+            return new Node(parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        }
+
+        /**
+         * @return Running games, -1 if the node takes no new games
+         */
+        long load() {
+            return !up || draining ? -1 : Math.max(games, reported);
+        }
+
+        /**
+         * Reads the active sessions and drain state from the metrics endpoint, a node that does not answer is down
+         */
+        void poll() {
+            try {
+                HttpURLConnection c = (HttpURLConnection) new URL("http", host, metricsPort, "/metrics").openConnection();
+                c.setConnectTimeout(1000);
+                c.setReadTimeout(1000);
+                long active = 0;
+                boolean drain = false;
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(c.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (line.startsWith("connect4_sessions_active "))
+                            active = Long.parseLong(line.substring(line.indexOf(' ') + 1));
+                        else if (line.startsWith("connect4_draining "))
+                            drain = line.endsWith(" 1");
+                    }
+                }
+                reported = active;
+                if (drain && !draining)
+                    Log.info("Node " + this + " is draining");
+                draining = drain;
+                if (!up)
+                    Log.info("Node " + this + " is up");
+                up = true;
+            } catch (IOException | NumberFormatException e) {
+                if (up)
+                    Log.warn("Node " + this + " is down: " + e.getMessage());
+                up = false;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    /**
+     * Clients the router sent to one node to play each other
+     */
+    private static final class Game {
+        final Variant variant;
+        final Node node;
+        int clients;
+
+        Game(Variant variant, Node node) {
+            this.variant = variant;
+            this.node = node;
+        }
+    }
+
+    /**
+     * One client and its connection to the node, with a buffer per direction
+     */
+    private static final class Pipe {
+        final SocketChannel client;
+        final ByteBuffer up = ByteBuffer.allocate(BUFFER);
+        final ByteBuffer down = ByteBuffer.allocate(BUFFER);
+        final long since = System.nanoTime();
+        SocketChannel server;
+        SelectionKey clientKey, serverKey;
+        Game game;
+        Variant variant;
+        int ack, attempts;
+        long fromNode;
+        boolean ai, closed;
+
+        Pipe(SocketChannel client) {
+            this.client = client;
+        }
+    }
+}
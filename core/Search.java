@@ -0,0 +1,264 @@
+package core;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One search thread of {@link Connect4ComputerPlayer}
+ * <p>
+ * Negamax with alpha-beta pruning and iterative deepening on a private board.
+ * Several searches can share one {@link TranspositionTable} and stop flag,
+ * that way helper threads fill the table for the main search (Lazy SMP).
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+final class Search {
+    /**
+     * Scores at or above this value are forced wins, the faster the win the higher the score
+     */
+    static final int WIN_SCORE = 1_000_000;
+
+    // Node counter interval at which the budget gets checked
+    private static final int CHECK_INTERVAL = 1023;
+
+    private final TranspositionTable table;
+    private final AtomicBoolean stop;
+
+    private Board board;
+    private int[] order;
+    private int[] weights;
+    private long deadline;
+    private long nodeBudget;
+    private boolean abort, canAbort;
+
+    // Result of the last run
+    private long nodes;
+    private int depth;
+    private int score;
+    private int best;
+
+    /**
+     * Instantiates a search
+     *
+     * @param table Transposition table, may be shared with other searches
+     * @param stop  Stop flag, may be shared with other searches
+     */
+    Search(TranspositionTable table, AtomicBoolean stop) {
+        this.table = table;
+        this.stop = stop;
+    }
+
+    /**
+     * Prepares the next run
+     *
+     * @param board      Board to search, it is played on and restored
+     * @param order      Column order to try moves in
+     * @param weights    Cell weights for the static evaluation
+     * @param deadline   {@link System#nanoTime()} at which the search stops
+     * @param nodeBudget Positions this search may visit
+     */
+    void reset(Board board, int[] order, int[] weights, long deadline, long nodeBudget) {
+        this.board = board;
+        this.order = order;
+        this.weights = weights;
+        this.deadline = deadline;
+        this.nodeBudget = nodeBudget;
+        nodes = 0;
+        depth = 0;
+        score = 0;
+        best = -1;
+    }
+
+    /**
+     * Iterative deepening until the budget runs out, the stop flag is set or the game is solved
+     *
+     * @param player     Player index to move
+     * @param startDepth First depth to search, helpers start at different depths
+     * @param mayAbort   boolean if the search may stop before completing {@code startDepth}
+     * @return Zero based best column of the deepest completed iteration
+     */
+    int run(int player, int startDepth, boolean mayAbort) {
+        abort = false;
+        canAbort = mayAbort;
+        for (int c : order) {
+            if (board.canPlay(c)) {
+                best = c;
+                break;
+            }
+        }
+        if (best < 0)
+            throw new IllegalStateException("Board is full");
+
+        int cells = board.getWidth() * board.getHeight();
+        int maxDepth = cells - board.getMoves();
+        for (int d = Math.min(startDepth, maxDepth); d <= maxDepth; d++) {
+            int iterationBest = searchRoot(player, d, best);
+            if (abort)
+                break;
+            best = iterationBest;
+            depth = d;
+            canAbort = true;
+            // Forced win or loss found, searching deeper will not change it
+            if (Math.abs(score) >= WIN_SCORE - cells)
+                break;
+        }
+        board = null;
+        return best;
+    }
+
+    /**
+     * Searches all root moves to {@code d} plies
+     *
+     * @param player Player index to move
+     * @param d      Depth in plies
+     * @param first  Zero based column to search first, best move of the previous iteration
+     * @return Zero based best column of this iteration
+     */
+    private int searchRoot(int player, int d, int first) {
+        int alpha = -WIN_SCORE - 1;
+        int bestMove = first;
+        for (int i = -1; i < order.length; i++) {
+            int c = i < 0 ? first : order[i];
+            if ((i >= 0 && c == first) || !board.canPlay(c))
+                continue;
+
+            int s;
+            int r = board.play(c, player);
+            if (board.isWinAt(r, c))
+                s = WIN_SCORE - board.getMoves();
+            else
+                s = -negamax(1 - player, d - 1, -WIN_SCORE - 1, -alpha);
+            board.undo(c, player);
+
+            if (abort)
+                return bestMove;
+            if (s > alpha) {
+                alpha = s;
+                bestMove = c;
+            }
+        }
+        score = alpha;
+        return bestMove;
+    }
+
+    /**
+     * Negamax with alpha-beta pruning, scores are from the view of {@code player}
+     *
+     * @param player Player index to move
+     * @param d      Remaining depth in plies
+     * @param alpha  Lower bound
+     * @param beta   Upper bound
+     * @return Score of the position
+     */
+    private int negamax(int player, int d, int alpha, int beta) {
+        if ((++nodes & CHECK_INTERVAL) == 0 && canAbort
+                && (stop.get() || nodes >= nodeBudget || System.nanoTime() >= deadline))
+            abort = true;
+        if (abort)
+            return 0;
+
+        int moves = board.getMoves();
+        if (moves == board.getWidth() * board.getHeight())
+            return 0;
+
+        // Take an immediate win before looking any further
+        for (int c : order) {
+            if (board.canPlay(c)) {
+                int r = board.play(c, player);
+                boolean win = board.isWinAt(r, c);
+                board.undo(c, player);
+                if (win)
+                    return WIN_SCORE - moves - 1;
+            }
+        }
+
+        if (d == 0)
+            return evaluate(player);
+
+        // Reuse what an earlier search, or another thread, learned about this position
+        int alphaOrig = alpha;
+        long key = board.key(player);
+        long entry = table.probe(key);
+        int first = -1;
+        if (entry != 0) {
+            first = TranspositionTable.move(entry);
+            if (TranspositionTable.depth(entry) >= d) {
+                int s = TranspositionTable.score(entry);
+                int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.EXACT)
+                    return s;
+                if (bound == TranspositionTable.LOWER)
+                    alpha = Math.max(alpha, s);
+                else
+                    beta = Math.min(beta, s);
+                if (alpha >= beta)
+                    return s;
+            }
+        }
+
+        int bestScore = -WIN_SCORE - 1, bestMove = -1;
+        for (int i = first < 0 ? 0 : -1; i < order.length; i++) {
+            int c = i < 0 ? first : order[i];
+            if ((i >= 0 && c == first) || !board.canPlay(c))
+                continue;
+
+            board.play(c, player);
+            int s = -negamax(1 - player, d - 1, -beta, -alpha);
+            board.undo(c, player);
+
+            if (abort)
+                return 0;
+            if (s > bestScore) {
+                bestScore = s;
+                bestMove = c;
+            }
+            if (s > alpha)
+                alpha = s;
+            if (alpha >= beta)
+                break;
+        }
+
+        int bound = bestScore <= alphaOrig ? TranspositionTable.UPPER
+                : bestScore >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+        table.store(key, bestScore, d, bound, bestMove);
+        return bestScore;
+    }
+
+    /**
+     * Static evaluation, cells that take part in more winning lines are worth more
+     *
+     * @param player Player index to move
+     * @return Score from the view of {@code player}
+     */
+    private int evaluate(int player) {
+        return board.weigh(player, weights) - board.weigh(1 - player, weights);
+    }
+
+    /**
+     * @return Positions visited by the last run
+     */
+    long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return Deepest completed iteration of the last run
+     */
+    int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return Score of the deepest completed iteration
+     */
+    int getScore() {
+        return score;
+    }
+
+    /**
+     * @return Zero based best column of the last run
+     */
+    int getBest() {
+        return best;
+    }
+}
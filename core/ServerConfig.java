@@ -0,0 +1,418 @@
+package core;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Paths;
+
+/**
+ * Startup options of {@link Connect4Server}, given as {@code --name=value} arguments
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+final class ServerConfig {
+    /**
+     * What becomes of a running game whose seat ran out of time
+     */
+    enum Forfeit {
+        /**
+         * The seat out of time loses
+         */
+        LOSS,
+        /**
+         * The game counts as abandoned
+         */
+        ABANDON
+    }
+
+    // Milliseconds per tick of the session timer, how late a timeout may fire
+    private static final long TIMER_TICK = 100;
+
+    // Megabytes a game log segment may grow to, the reader maps every segment at int offsets
+    private static final long MAX_SEGMENT = 2047;
+
+    /**
+     * How game sessions are run
+     */
+    enum Mode {
+        /**
+         * One platform thread per game blocking on the sockets
+         */
+        THREAD,
+        /**
+         * One virtual thread per game blocking on the sockets, needs a Java 21 build ({@code gradle -PjavaVersion=21})
+         */
+        VIRTUAL,
+        /**
+         * Non-blocking channels multiplexed over a few event loops
+         */
+        NIO
+    }
+
+    private int port = 8082;
+    private Mode mode = Mode.THREAD;
+    private int loops = Runtime.getRuntime().availableProcessors();
+    private long matchTimeout = 60000;
+    private long aiFallback = 0;
+    private long aiTime = 500;
+    private int aiCache = 16;
+    private PositionCache positionCache;
+    private int aiThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private int aiQueue = 256;
+    private long aiDeadline = 2000;
+    private ThinkPool thinkPool;
+    private long handshake = 200;
+    private long turnTimeout = 120000;
+    private long idleTimeout = 30000;
+    private Forfeit forfeit = Forfeit.LOSS;
+    private long drainTimeout = 0;
+    private TimerWheel timer;
+    private boolean tcpNoDelay = true;
+    private boolean keepAlive = false;
+    private int sendBuffer = 0;
+    private int receiveBuffer = 0;
+    private int metricsPort = 0;
+    private int spectatorPort = 0;
+    private Log.Level logLevel = Log.Level.INFO;
+    private String gameLog = "";
+    private long gameLogSegment = 64;
+    private int gameLogQueue = 4096;
+
+    /**
+     * Parses the command line
+     *
+     * @param args Arguments of the form {@code --name=value}
+     * @return The parsed configuration
+     * @throws IllegalArgumentException On unknown options or malformed values
+     */
+    static ServerConfig parse(String[] args) {
+        ServerConfig config = new ServerConfig();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0)
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            config.set(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return config;
+    }
+
+    /**
+     * Sets a single option
+     *
+     * @param name  Option name
+     * @param value Option value
+     */
+    private void set(String name, String value) {
+        switch (name) {
+            case "port":
+                port = Integer.parseInt(value);
+                break;
+            case "mode":
+                mode = Mode.valueOf(value.toUpperCase());
+                if (mode == Mode.VIRTUAL && Runtime.version().feature() < 21)
+                    throw new IllegalArgumentException("--mode=virtual needs Java 21, running " + Runtime.version()
+                            + ", build and run with gradle -PjavaVersion=21");
+                break;
+            case "loops":
+                loops = positive(name, Integer.parseInt(value));
+                break;
+            case "match-timeout":
+                matchTimeout = nonNegative(name, Long.parseLong(value));
+                break;
+            case "ai-fallback":
+                aiFallback = nonNegative(name, Long.parseLong(value));
+                break;
+            case "ai-time":
+                aiTime = positive(name, Long.parseLong(value));
+                break;
+            case "ai-cache":
+                aiCache = (int) nonNegative(name, Integer.parseInt(value));
+                break;
+            case "ai-threads":
+                aiThreads = positive(name, Integer.parseInt(value));
+                break;
+            case "ai-queue":
+                aiQueue = positive(name, Integer.parseInt(value));
+                break;
+            case "ai-deadline":
+                aiDeadline = positive(name, Long.parseLong(value));
+                break;
+            case "handshake":
+                handshake = nonNegative(name, Long.parseLong(value));
+                break;
+            case "turn-timeout":
+                turnTimeout = nonNegative(name, Long.parseLong(value));
+                break;
+            case "idle-timeout":
+                idleTimeout = nonNegative(name, Long.parseLong(value));
+                break;
+            case "forfeit":
+                forfeit = Forfeit.valueOf(value.toUpperCase());
+                break;
+            case "drain-timeout":
+                drainTimeout = nonNegative(name, Long.parseLong(value));
+                break;
+            case "tcp-nodelay":
+                tcpNoDelay = bool(name, value);
+                break;
+            case "keepalive":
+                keepAlive = bool(name, value);
+                break;
+            case "sndbuf":
+                sendBuffer = (int) nonNegative(name, Integer.parseInt(value));
+                break;
+            case "rcvbuf":
+                receiveBuffer = (int) nonNegative(name, Integer.parseInt(value));
+                break;
+            case "metrics-port":
+                metricsPort = (int) nonNegative(name, Integer.parseInt(value));
+                break;
+            case "spectator-port":
+                spectatorPort = (int) nonNegative(name, Integer.parseInt(value));
+                break;
+            case "log":
+                logLevel = Log.Level.valueOf(value.toUpperCase());
+                break;
+            case "game-log":
+                gameLog = value;
+                break;
+            case "game-log-segment":
+                gameLogSegment = positive(name, Integer.parseInt(value));
+                if (gameLogSegment > MAX_SEGMENT)
+                    throw new IllegalArgumentException("--" + name + " must be at most " + MAX_SEGMENT + ": " + value);
+                break;
+            case "game-log-queue":
+                gameLogQueue = positive(name, Integer.parseInt(value));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option --" + name);
+        }
+    }
+
+    /**
+     * @param name  Option name for the error message
+     * @param value Value to check
+     * @return {@code value} if it is above zero
+     */
+    private static int positive(String name, int value) {
+        return (int) positive(name, (long) value);
+    }
+
+    /**
+     * @param name  Option name for the error message
+     * @param value Value to check
+     * @return {@code value} if it is above zero
+     */
+    private static long positive(String name, long value) {
+        if (value <= 0)
+            throw new IllegalArgumentException("--" + name + " must be positive: " + value);
+        return value;
+    }
+
+    /**
+     * @param name  Option name for the error message
+     * @param value {@code true} or {@code false}
+     * @return The parsed value
+     */
+    private static boolean bool(String name, String value) {
+        if (!value.equals("true") && !value.equals("false"))
+            throw new IllegalArgumentException("--" + name + " must be true or false: " + value);
+        return value.equals("true");
+    }
+
+    /**
+     * @param name  Option name for the error message
+     * @param value Value to check
+     * @return {@code value} if it is zero or above
+     */
+    private static long nonNegative(String name, long value) {
+        if (value < 0)
+            throw new IllegalArgumentException("--" + name + " must not be negative: " + value);
+        return value;
+    }
+
+    /**
+     * @return Port to listen on
+     */
+    int getPort() {
+        return port;
+    }
+
+    /**
+     * @return How game sessions are run
+     */
+    Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return Amount of event loops in {@link Mode#NIO}
+     */
+    int getLoops() {
+        return loops;
+    }
+
+    /**
+     * @return Milliseconds a player waits for an opponent before being dropped, 0 waits forever
+     */
+    long getMatchTimeout() {
+        return matchTimeout;
+    }
+
+    /**
+     * @return Milliseconds a player waits before getting an AI opponent, 0 never falls back to the AI, clients
+     * that ask for it in the handshake get it either way
+     */
+    long getAiFallback() {
+        return aiFallback;
+    }
+
+    /**
+     * @return Milliseconds a client has to say hello before it is taken for a string protocol client
+     */
+    long getHandshake() {
+        return handshake;
+    }
+
+    /**
+     * @return What becomes of a running game whose seat ran out of time
+     */
+    Forfeit getForfeit() {
+        return forfeit;
+    }
+
+    /**
+     * @return Milliseconds running games get to end once the server is asked to shut down, 0 exits right away
+     */
+    long getDrainTimeout() {
+        return drainTimeout;
+    }
+
+    /**
+     * @return Milliseconds the server AI thinks per move
+     */
+    long getAiTime() {
+        return aiTime;
+    }
+
+    /**
+     * @return Port of the plain text metrics endpoint, 0 if it is off
+     */
+    int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * @return Port spectators connect to, 0 if games cannot be watched
+     */
+    int getSpectatorPort() {
+        return spectatorPort;
+    }
+
+    /**
+     * @return Lowest level logged, {@code debug} logs every input
+     */
+    Log.Level getLogLevel() {
+        return logLevel;
+    }
+
+    /**
+     * Applies the socket options to the listening socket before it is bound, accepted sockets inherit the receive buffer
+     *
+     * @param server Unbound server socket
+     * @throws IOException If an option cannot be set
+     */
+    void configure(ServerSocket server) throws IOException {
+        if (receiveBuffer > 0)
+            server.setReceiveBufferSize(receiveBuffer);
+    }
+
+    /**
+     * Applies the socket options to an accepted client
+     *
+     * @param socket Client socket, for channels their {@code socket()} adaptor
+     * @throws IOException If an option cannot be set
+     */
+    void configure(Socket socket) throws IOException {
+        socket.setTcpNoDelay(tcpNoDelay);
+        socket.setKeepAlive(keepAlive);
+        if (sendBuffer > 0)
+            socket.setSendBufferSize(sendBuffer);
+        if (receiveBuffer > 0)
+            socket.setReceiveBufferSize(receiveBuffer);
+    }
+
+    /**
+     * Opens the game log if one is configured
+     *
+     * @return The log in the {@code --game-log} directory with segments of {@code --game-log-segment} megabytes, null if off
+     * @throws IOException If the log cannot be opened
+     */
+    GameLog openGameLog() throws IOException {
+        if (gameLog.isEmpty())
+            return null;
+        return new GameLog(Paths.get(gameLog), gameLogSegment << 20, gameLogQueue);
+    }
+
+    /**
+     * Creates the AI for a game against the server
+     *
+     * @return A single threaded AI with a small table, many of them run side by side
+     */
+    Connect4ComputerPlayer newAi() {
+        Connect4ComputerPlayer ai = new Connect4ComputerPlayer(aiTime, Long.MAX_VALUE, 1);
+        ai.setPositionCache(getPositionCache());
+        return ai;
+    }
+
+    /**
+     * Gets the pool every server AI thinks on, started on first use
+     *
+     * @return A pool of {@code --ai-threads} threads, {@code --ai-queue} waiting moves and moves due after {@code --ai-deadline}
+     */
+    synchronized ThinkPool getThinkPool() {
+        if (thinkPool == null) {
+            thinkPool = new ThinkPool(aiThreads, aiQueue, aiDeadline);
+            thinkPool.start();
+            Metrics.get().watch(thinkPool);
+        }
+        return thinkPool;
+    }
+
+    /**
+     * Creates the timeouts of a session, all sessions share one timer started on first use
+     *
+     * @param bothSeats boolean if the transport hears both seats, see {@link Watchdog}
+     * @param expiry    What the session does once a seat is out of time
+     * @return A watchdog with {@code --turn-timeout} and {@code --idle-timeout}, null if both are 0
+     */
+    Watchdog newWatchdog(boolean bothSeats, Watchdog.Expiry expiry) {
+        if (turnTimeout == 0 && idleTimeout == 0)
+            return null;
+        return new Watchdog(getTimer(), turnTimeout, idleTimeout, bothSeats, expiry);
+    }
+
+    /**
+     * @return The session timer, started on first use
+     */
+    private synchronized TimerWheel getTimer() {
+        if (timer == null) {
+            // One turn of the wheel covers the default timeouts, longer ones wait a few rounds
+            timer = new TimerWheel(TIMER_TICK, 2048);
+            timer.start();
+        }
+        return timer;
+    }
+
+    /**
+     * Gets the cache every server AI shares, created on first use
+     *
+     * @return A cache of {@code --ai-cache} megabytes, null if it is 0
+     */
+    synchronized PositionCache getPositionCache() {
+        if (positionCache == null && aiCache > 0)
+            positionCache = new PositionCache(aiCache);
+        return positionCache;
+    }
+}
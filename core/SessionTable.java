@@ -0,0 +1,240 @@
+package core;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Positions of all live games in fixed slots of off-heap memory
+ * <p>
+ * Every game whose board fits a {@link BitBoard} takes one {@link #SLOT} byte
+ * slot, a cache line, holding both piece masks, the board size, the player
+ * to move and the moves played at four bits each. Slots sit in direct
+ * buffers of {@link #CHUNK} slots that are added as the table grows and kept
+ * for reuse, so hundreds of thousands of games cost the garbage collector
+ * one small {@link Slot} object each instead of a whole {@link Connect4}.
+ * Freed slots form a free list threaded through the slots themselves.
+ * <p>
+ * Allocating and freeing are synchronized, a slot itself is only ever used by
+ * the thread running its session, which got it through an executor or an
+ * event loop queue after it was allocated.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+final class SessionTable {
+    /**
+     * Bytes per game
+     */
+    static final int SLOT = 64;
+
+    // Slots per direct buffer, 1 MB each
+    private static final int CHUNK_SHIFT = 14;
+    private static final int CHUNK = 1 << CHUNK_SHIFT;
+
+    // Slot layout, a free slot holds the next free slot at offset 0 instead
+    private static final int PIECES_0 = 0, PIECES_1 = 8, WIDTH = 16, HEIGHT = 17, CONNECT = 18, MOVES = 19,
+            PLAYER = 20, HISTORY = 24;
+    private static final int NEXT_FREE = 0;
+
+    private static final SessionTable INSTANCE = new SessionTable();
+
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+
+    // Guarded by this
+    private int free = -1;
+    private int used;
+    private volatile int live;
+
+    private SessionTable() {
+    }
+
+    /**
+     * @return The table of this process
+     */
+    static SessionTable get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param variant A variant
+     * @return boolean if its games fit a slot, both masks in a {@link BitBoard} and every column in four bits
+     */
+    static boolean fits(Variant variant) {
+        return variant.columns * (variant.rows + 1) < Long.SIZE && variant.columns <= 16
+                && variant.columns * variant.rows <= (SLOT - HISTORY) * 2;
+    }
+
+    /**
+     * Takes a slot for a new game, reusing a freed one if there is any
+     *
+     * @param variant Board of the game, must {@link #fits(Variant) fit}
+     * @return The game, {@link Slot#release()} it once the session ends
+     */
+    synchronized Slot allocate(Variant variant) {
+        int id;
+        if (free >= 0) {
+            id = free;
+            free = buffer(id).getInt(offset(id) + NEXT_FREE);
+        } else {
+            id = used++;
+            if (id >>> CHUNK_SHIFT == chunks.length) {
+                ByteBuffer[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+                grown[chunks.length] = ByteBuffer.allocateDirect(CHUNK * SLOT);
+                chunks = grown;
+            }
+        }
+        live++;
+
+        ByteBuffer b = buffer(id);
+        int o = offset(id);
+        for (int i = 0; i < SLOT; i += Long.BYTES)
+            b.putLong(o + i, 0);
+        b.put(o + WIDTH, (byte) variant.columns);
+        b.put(o + HEIGHT, (byte) variant.rows);
+        b.put(o + CONNECT, (byte) variant.connect);
+        return new Slot(this, id);
+    }
+
+    /**
+     * @param id Slot no longer used
+     */
+    private synchronized void free(int id) {
+        buffer(id).putInt(offset(id) + NEXT_FREE, free);
+        free = id;
+        live--;
+    }
+
+    /**
+     * @return Games holding a slot
+     */
+    int size() {
+        return live;
+    }
+
+    /**
+     * @return Off-heap bytes taken by the table, used or free
+     */
+    long getReservedBytes() {
+        return (long) chunks.length * CHUNK * SLOT;
+    }
+
+    /**
+     * @param id Slot id
+     * @return The buffer holding it
+     */
+    private ByteBuffer buffer(int id) {
+        return chunks[id >>> CHUNK_SHIFT];
+    }
+
+    /**
+     * @param id Slot id
+     * @return Offset of the slot in its buffer
+     */
+    private static int offset(int id) {
+        return (id & (CHUNK - 1)) * SLOT;
+    }
+
+    /**
+     * One game's position in the table, only ever touched by the thread running its session
+     */
+    static final class Slot implements GameState {
+        private final SessionTable table;
+        private final int id;
+        private boolean released;
+
+        private Slot(SessionTable table, int id) {
+            this.table = table;
+            this.id = id;
+        }
+
+        @Override
+        public int update(int column) {
+            ByteBuffer b = table.buffer(id);
+            int o = offset(id);
+            int width = b.get(o + WIDTH), height = b.get(o + HEIGHT);
+            if (column < 1 || column > width)
+                return Connect4.OUT_OF_RANGE;
+            int c = column - 1, stride = height + 1;
+            long both = b.getLong(o + PIECES_0) | b.getLong(o + PIECES_1);
+            int r = Long.bitCount((both >>> (c * stride)) & ((1L << height) - 1));
+            if (r == height)
+                return Connect4.COLUMN_FULL;
+
+            int player = b.get(o + PLAYER), moves = b.get(o + MOVES);
+            int at = o + (player == 0 ? PIECES_0 : PIECES_1);
+            b.putLong(at, b.getLong(at) | 1L << (c * stride + r));
+            int h = o + HISTORY + (moves >>> 1);
+            b.put(h, (byte) ((moves & 1) == 0 ? c : b.get(h) | c << 4));
+            b.put(o + MOVES, (byte) (moves + 1));
+            b.put(o + PLAYER, (byte) (1 - player));
+            return Connect4.OK;
+        }
+
+        @Override
+        public boolean checkLastMoveWin() {
+            ByteBuffer b = table.buffer(id);
+            int o = offset(id);
+            int moves = b.get(o + MOVES);
+            if (moves == 0)
+                return false;
+            int height = b.get(o + HEIGHT), stride = height + 1;
+            int c = getMove(moves - 1) - 1;
+            long p0 = b.getLong(o + PIECES_0), p1 = b.getLong(o + PIECES_1);
+            int r = Long.bitCount(((p0 | p1) >>> (c * stride)) & ((1L << height) - 1)) - 1;
+            int pos = c * stride + r, mover = (p0 >>> pos & 1) != 0 ? 0 : 1;
+            long mine = mover == 0 ? p0 : p1;
+            if (!BitBoard.isWinAt(mine, pos, stride, b.get(o + CONNECT)))
+                return false;
+            b.put(o + PLAYER, (byte) mover); // The winner stays the current player, as in Connect4
+            return true;
+        }
+
+        @Override
+        public boolean isBoardFull() {
+            ByteBuffer b = table.buffer(id);
+            int o = offset(id);
+            return b.get(o + MOVES) == b.get(o + WIDTH) * b.get(o + HEIGHT);
+        }
+
+        @Override
+        public void initBoard() {
+            ByteBuffer b = table.buffer(id);
+            int o = offset(id);
+            b.putLong(o + PIECES_0, 0);
+            b.putLong(o + PIECES_1, 0);
+            b.put(o + MOVES, (byte) 0);
+        }
+
+        @Override
+        public int getPlayerIndex() {
+            return table.buffer(id).get(offset(id) + PLAYER);
+        }
+
+        @Override
+        public Board copyBoard() {
+            ByteBuffer b = table.buffer(id);
+            int o = offset(id);
+            return new BitBoard(b.get(o + WIDTH), b.get(o + HEIGHT), b.get(o + CONNECT),
+                    b.getLong(o + PIECES_0), b.getLong(o + PIECES_1));
+        }
+
+        @Override
+        public int getMoveCount() {
+            return table.buffer(id).get(offset(id) + MOVES);
+        }
+
+        @Override
+        public int getMove(int ply) {
+            int packed = table.buffer(id).get(offset(id) + HISTORY + (ply >>> 1));
+            return ((ply & 1) == 0 ? packed & 0xF : packed >>> 4 & 0xF) + 1;
+        }
+
+        @Override
+        public void release() {
+            if (released)
+                return;
+            released = true;
+            table.free(id);
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package core;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Streams live games to spectators on their own port and thread
+ * <p>
+ * A spectator sends the id of a game as a four byte integer, 0 for the game
+ * started last. It gets the variant as in the {@link Protocol} hello answer,
+ * a {@link Protocol#OP_BOARD} snapshot of the game so far and then every
+ * {@link Broadcast} event as it happens, until {@link Protocol#OP_QUIT}.
+ * <p>
+ * Games never wait for spectators, this thread polls every watched game once
+ * per tick, encodes its new events once and writes the same bytes to every
+ * spectator that is caught up. A spectator whose socket cannot take them
+ * falls behind and catches up on its own, with a snapshot once the game's
+ * ring has moved past it.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+final class SpectatorServer implements Runnable {
+    // Milliseconds between two polls of the watched games
+    private static final long TICK = 5;
+
+    // Bytes a spectator may have waiting for its socket before it stops getting events
+    private static final int BACKLOG = 4096;
+
+    private final int port;
+    private final Map<Integer, Broadcast> live = new ConcurrentHashMap<>();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final AtomicReference<Broadcast> latest = new AtomicReference<>();
+    private final Metrics metrics = Metrics.get();
+
+    // Only touched by the spectator thread
+    private final Map<Broadcast, Audience> audiences = new HashMap<>();
+    private final short[] events = new short[64];
+    private final byte[] moves = new byte[Variant.MAX_SIZE * Variant.MAX_SIZE];
+    private final ByteBuffer frames = ByteBuffer.allocate(2 * 64);
+    private final ByteBuffer discard = ByteBuffer.allocate(64);
+
+    /**
+     * Instantiates the server, call {@link #start()} to accept spectators
+     *
+     * @param port Port spectators connect to
+     */
+    SpectatorServer(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Starts the spectator thread
+     */
+    void start() {
+        Thread t = new Thread(this, "connect4-spectators");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Makes a game watchable, called when it starts
+     *
+     * @param variant Board of the game
+     * @return The broadcast the game publishes to
+     */
+    Broadcast open(Variant variant) {
+        Broadcast broadcast = new Broadcast(ids.incrementAndGet(), variant);
+        live.put(broadcast.id, broadcast);
+        latest.set(broadcast);
+        return broadcast;
+    }
+
+    /**
+     * Ends a game, spectators get its last events and are closed
+     *
+     * @param broadcast The game's broadcast
+     */
+    void close(Broadcast broadcast) {
+        broadcast.end();
+        live.remove(broadcast.id);
+        latest.compareAndSet(broadcast, null); // Unless a newer game took its place already
+    }
+
+    /**
+     * @return Games that can be watched
+     */
+    int getLive() {
+        return live.size();
+    }
+
+    @Override
+    public void run() {
+        try (Selector selector = Selector.open(); ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            Log.info("Spectators on " + port);
+
+            while (true) {
+                selector.select(TICK);
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable())
+                        accept(server, selector);
+                    else
+                        onReady((Watcher) key.attachment(), key);
+                }
+                pumpAll();
+            }
+        } catch (IOException e) {
+            Log.warn("Spectator server failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param server   Listening channel
+     * @param selector Selector of this thread
+     * @throws IOException If the selector fails
+     */
+    private void accept(ServerSocketChannel server, Selector selector) throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null)
+            return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Watcher watcher = new Watcher(channel);
+        watcher.key = channel.register(selector, SelectionKey.OP_READ, watcher);
+    }
+
+    /**
+     * Reads the game id of a new spectator, or flushes a slow one
+     *
+     * @param w   The spectator
+     * @param key Its selection key
+     */
+    private void onReady(Watcher w, SelectionKey key) {
+        try {
+            if (key.isReadable()) {
+                ByteBuffer in = w.broadcast == null ? w.request : discard;
+                int read = w.channel.read(in);
+                discard.clear(); // Spectators have nothing to say once subscribed
+                if (read < 0) {
+                    drop(w);
+                    return;
+                }
+                if (w.broadcast == null && !w.request.hasRemaining())
+                    subscribe(w, w.request.getInt(0));
+            }
+            if (key.isValid() && key.isWritable())
+                flush(w);
+        } catch (IOException e) {
+            drop(w);
+        }
+    }
+
+    /**
+     * Starts streaming a game to a spectator
+     *
+     * @param w  The spectator
+     * @param id Game id, 0 for the game started last
+     * @throws IOException If the spectator left
+     */
+    private void subscribe(Watcher w, int id) throws IOException {
+        Broadcast broadcast = id == 0 ? latest.get() : live.get(id);
+        if (broadcast == null) {
+            drop(w);
+            return;
+        }
+        w.broadcast = broadcast;
+        w.out.put((byte) Protocol.HELLO).put((byte) Protocol.VERSION);
+        w.out.put((byte) broadcast.variant.columns).put((byte) broadcast.variant.rows).put((byte) broadcast.variant.connect);
+        snapshot(w);
+        audiences.computeIfAbsent(broadcast, b -> new Audience(b, b.getPublished())).watchers.add(w);
+        metrics.spectatorJoined();
+        flush(w);
+    }
+
+    /**
+     * Queues the current game of the spectator's broadcast and moves it to the latest event, followed by
+     * {@link Protocol#OP_QUIT} if the session already ended
+     *
+     * @param w The spectator
+     */
+    private void snapshot(Watcher w) {
+        long snapshot = w.broadcast.snapshot(moves);
+        int count = (int) (snapshot & 0xFFFF);
+        boolean ended = (snapshot >>> 17 & 1) != 0;
+        w.cursor = snapshot >>> 18;
+        if (w.out.remaining() < 6 + count)
+            w.out = ByteBuffer.allocate(w.out.position() + 6 + count).put(w.out.flip());
+        w.out.put((byte) Protocol.OP_BOARD).put((byte) (snapshot >>> 16 & 1)).putShort((short) count).put(moves, 0, count);
+        if (ended) {
+            // The quit is behind the cursor, the spectator would wait for it forever
+            w.out.put((byte) Protocol.OP_QUIT).put((byte) 0);
+            w.over = true;
+        }
+        metrics.spectatorSnapshot();
+    }
+
+    /**
+     * Hands the new events of every watched game to its spectators
+     */
+    private void pumpAll() {
+        Iterator<Audience> it = audiences.values().iterator();
+        while (it.hasNext()) {
+            Audience audience = it.next();
+            pump(audience);
+            if (audience.watchers.isEmpty())
+                it.remove();
+        }
+    }
+
+    /**
+     * Encodes the new events of a game once and writes them to every spectator that is caught up
+     *
+     * @param audience Spectators of one game
+     */
+    private void pump(Audience audience) {
+        int n = audience.broadcast.poll(audience.cursor, events);
+        if (n < 0) {
+            // Even this thread fell behind, every spectator catches up on its own
+            audience.cursor = audience.broadcast.getPublished();
+            n = 0;
+        }
+        frames.clear();
+        boolean over = encode(events, n, frames);
+        frames.flip();
+        long from = audience.cursor;
+        audience.cursor += n;
+
+        for (int i = audience.watchers.size() - 1; i >= 0; i--) {
+            Watcher w = audience.watchers.get(i);
+            try {
+                if (w.cursor == from && w.out.position() == 0) {
+                    if (n > 0) {
+                        ByteBuffer shared = frames.duplicate();
+                        w.channel.write(shared);
+                        w.out.put(shared); // Whatever the socket did not take, never more than one tick of events
+                        w.cursor = audience.cursor;
+                        w.over = over;
+                    }
+                } else {
+                    catchUp(w);
+                }
+                flush(w);
+            } catch (IOException e) {
+                drop(w);
+            }
+        }
+    }
+
+    /**
+     * Queues what a spectator missed, as far as its backlog allows
+     *
+     * @param w The spectator
+     */
+    private void catchUp(Watcher w) {
+        while (!w.over && w.out.remaining() >= 2 * events.length) {
+            int n = w.broadcast.poll(w.cursor, events);
+            if (n < 0) {
+                // Appended behind what is still queued, which may be half written so it stays.
+                // The whole board it carries supersedes those frames once the spectator reads it.
+                snapshot(w);
+                continue;
+            }
+            if (n == 0)
+                return;
+            w.over = encode(events, n, w.out);
+            w.cursor += n;
+        }
+    }
+
+    /**
+     * @param events Events as {@link Broadcast#poll(long, short[])} returns them
+     * @param n      Amount of events
+     * @param out    Where the frames go
+     * @return boolean if the last event ends the game
+     */
+    private static boolean encode(short[] events, int n, ByteBuffer out) {
+        boolean over = false;
+        for (int i = 0; i < n; i++) {
+            out.putShort(events[i]);
+            over = events[i] >>> 8 == Protocol.OP_QUIT;
+        }
+        return over;
+    }
+
+    /**
+     * Writes what the spectator has queued, closing it once the game is over and everything is written
+     *
+     * @param w The spectator
+     * @throws IOException If the spectator left
+     */
+    private void flush(Watcher w) throws IOException {
+        if (w.out.position() > 0) {
+            w.out.flip();
+            w.channel.write(w.out);
+            w.out.compact();
+        }
+        boolean pending = w.out.position() > 0;
+        if (!pending && w.over) {
+            drop(w);
+            return;
+        }
+        int ops = pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+        if (w.key.interestOps() != ops)
+            w.key.interestOps(ops);
+    }
+
+    /**
+     * Closes a spectator
+     *
+     * @param w The spectator
+     */
+    private void drop(Watcher w) {
+        if (w.broadcast != null) {
+            Audience audience = audiences.get(w.broadcast);
+            if (audience != null && audience.watchers.remove(w))
+                metrics.spectatorLeft();
+        }
+        w.key.cancel();
+        try {
+            w.channel.close();
+        } catch (IOException e) {
+            Log.warn("Could not close spectator correctly: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Spectators of one game and how far this thread has read it
+     */
+    private static final class Audience {
+        final Broadcast broadcast;
+        final List<Watcher> watchers = new ArrayList<>();
+        long cursor;
+
+        Audience(Broadcast broadcast, long cursor) {
+            this.broadcast = broadcast;
+            this.cursor = cursor;
+        }
+    }
+
+    /**
+     * One spectator connection
+     */
+    private static final class Watcher {
+        final SocketChannel channel;
+        final ByteBuffer request = ByteBuffer.allocate(4);
+        ByteBuffer out = ByteBuffer.allocate(BACKLOG);
+        SelectionKey key;
+        Broadcast broadcast;
+        long cursor;
+        boolean over;
+
+        Watcher(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
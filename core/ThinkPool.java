@@ -0,0 +1,172 @@
+package core;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of threads the server AIs think on, away from the threads serving clients
+ * <p>
+ * Every AI move is a job due a fixed time after it was asked for. Jobs wait
+ * in a queue ordered by that deadline, earliest first, and the search of a
+ * job only gets the time left until it is due, so a move that waited long
+ * thinks shorter and still arrives on time. When the pool is overloaded,
+ * because the queue is full or a job is due before it could search at all,
+ * the job is shed: it is answered at once by
+ * {@link Connect4ComputerPlayer#react(Board, int)} instead of searching, so
+ * an AI game gets weaker under load but never stalls.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+final class ThinkPool {
+    /**
+     * Takes the AI's move, called once per job on a pool thread, or on the asking thread if the job is shed at once
+     */
+    interface Reply {
+        /**
+         * @param column The column to play (1 based)
+         */
+        void moved(int column);
+    }
+
+    /**
+     * A move asked for, cancel it if the game ends before it is answered
+     */
+    static final class Job implements Comparable<Job> {
+        private final Connect4ComputerPlayer ai;
+        private final Board board;
+        private final int player;
+        private final Reply reply;
+        private final long due, seq;
+        private volatile boolean cancelled;
+
+        private Job(Connect4ComputerPlayer ai, Board board, int player, Reply reply, long due, long seq) {
+            this.ai = ai;
+            this.board = board;
+            this.player = player;
+            this.reply = reply;
+            this.due = due;
+            this.seq = seq;
+        }
+
+        /**
+         * Drops the job, its reply is not called unless it already runs
+         */
+        void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public int compareTo(Job o) {
+            int c = Long.compare(due - o.due, 0); // nanoTime values only compare by difference
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+
+    // Least time worth searching, a job with less left is shed
+    private static final long MIN_THINK = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final int threads, capacity;
+    private final long deadlineNanos;
+    private final PriorityBlockingQueue<Job> queue = new PriorityBlockingQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong seq = new AtomicLong();
+    private final Metrics metrics = Metrics.get();
+
+    /**
+     * Instantiates a pool, call {@link #start()} to run it
+     *
+     * @param threads        Threads thinking side by side
+     * @param capacity       Jobs that may wait, more are shed
+     * @param deadlineMillis Milliseconds after a move is asked for that it is due
+     */
+    ThinkPool(int threads, int capacity, long deadlineMillis) {
+        if (threads <= 0 || capacity <= 0 || deadlineMillis <= 0)
+            throw new IllegalArgumentException("Threads, capacity and deadline must be positive");
+        this.threads = threads;
+        this.capacity = capacity;
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+    }
+
+    /**
+     * Starts the thinking threads
+     */
+    void start() {
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(this::work, "connect4-think-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Asks for a move, safe from any thread and never blocks
+     *
+     * @param ai     The AI of the game, only one move of it may be asked for at a time
+     * @param board  A copy of the position, owned by the pool from now on
+     * @param player Player to move
+     * @param reply  Takes the move
+     * @return The job, to cancel it
+     */
+    Job submit(Connect4ComputerPlayer ai, Board board, int player, Reply reply) {
+        Job job = new Job(ai, board, player, reply, System.nanoTime() + deadlineNanos, seq.getAndIncrement());
+        if (queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            shed(job);
+        } else {
+            queue.add(job);
+        }
+        return job;
+    }
+
+    /**
+     * @return Jobs waiting for a thread
+     */
+    int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * Runs jobs forever, earliest deadline first
+     */
+    private void work() {
+        while (true) {
+            Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            queued.decrementAndGet();
+            if (job.cancelled)
+                continue;
+            long start = System.nanoTime();
+            if (job.due - start < MIN_THINK) {
+                shed(job);
+                continue;
+            }
+            int column;
+            try {
+                column = job.ai.generate(job.board, job.player, job.due);
+            } catch (RuntimeException e) {
+                Log.warn("AI failed, answering without searching: " + e);
+                shed(job);
+                continue;
+            }
+            metrics.aiThought(System.nanoTime() - start);
+            job.reply.moved(column);
+        }
+    }
+
+    /**
+     * Answers a job without searching
+     *
+     * @param job The job
+     */
+    private void shed(Job job) {
+        metrics.aiShed();
+        job.reply.moved(job.ai.react(job.board, job.player));
+    }
+}
@@ -0,0 +1,209 @@
+package core;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed wheel timer running coarse timeouts of many sessions on one thread
+ * <p>
+ * Timeouts hang in a ring of buckets, one bucket per tick, and a timeout
+ * further away than one turn of the wheel waits there for the rounds left.
+ * Scheduling and cancelling from other threads only queue the timeout, the
+ * timer thread links it in or out at its next tick, so every operation is
+ * constant time and a tick only touches the timeouts of one bucket. Timeouts
+ * run up to one tick late.
+ * <p>
+ * A task that finds its deadline moved returns the time left and is put back
+ * without allocating, so callers can move deadlines with a plain field write
+ * and leave the checking to the timer.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+final class TimerWheel implements Runnable {
+    /**
+     * Work run on the timer thread, must return quickly
+     */
+    interface Task {
+        /**
+         * @param now Current {@link System#nanoTime()}
+         * @return Nanoseconds until it runs again, 0 or less if it is done
+         */
+        long run(long now);
+    }
+
+    /**
+     * A task and its place in the wheel, scheduled again and again
+     */
+    static final class Timeout {
+        final Task task;
+        private long deadline;
+        private long rounds;
+        private int bucket;
+        private Timeout prev, next;
+        private boolean linked;
+        private volatile boolean cancelled;
+
+        private Timeout(Task task) {
+            this.task = task;
+        }
+    }
+
+    private final long tickNanos;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final long startNanos = System.nanoTime();
+    private long tick;
+    private volatile int size;
+
+    /**
+     * Instantiates a timer, call {@link #start()} to run it
+     *
+     * @param tickMillis Milliseconds per tick, how late a timeout may run
+     * @param wheelSize  Buckets, rounded up to a power of two
+     */
+    TimerWheel(long tickMillis, int wheelSize) {
+        if (tickMillis <= 0 || wheelSize <= 0)
+            throw new IllegalArgumentException("Tick and wheel size must be positive");
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int n = Integer.highestOneBit(Math.max(wheelSize - 1, 1)) << 1;
+        this.buckets = new Timeout[n];
+        this.mask = n - 1;
+    }
+
+    /**
+     * Starts the timer thread
+     */
+    void start() {
+        Thread t = new Thread(this, "connect4-timer");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * @param task Work to run
+     * @return A timeout for {@link #schedule(Timeout, long)}, not scheduled yet
+     */
+    Timeout newTimeout(Task task) {
+        return new Timeout(task);
+    }
+
+    /**
+     * Runs the task of {@code timeout} once {@code delayNanos} passed, safe from any thread
+     *
+     * @param timeout    A timeout that is not scheduled
+     * @param delayNanos Nanoseconds from now
+     */
+    void schedule(Timeout timeout, long delayNanos) {
+        timeout.deadline = System.nanoTime() + Math.max(delayNanos, 0);
+        scheduled.add(timeout);
+    }
+
+    /**
+     * Stops a timeout for good, safe from any thread, its task is not run after the next tick
+     *
+     * @param timeout The timeout
+     */
+    void cancel(Timeout timeout) {
+        timeout.cancelled = true;
+        cancelled.add(timeout);
+    }
+
+    /**
+     * @return Timeouts in the wheel as of the last tick
+     */
+    int size() {
+        return size;
+    }
+
+    @Override
+    public void run() {
+        int count = 0;
+        while (true) {
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long sleep;
+            while ((sleep = deadline - System.nanoTime()) > 0)
+                LockSupport.parkNanos(sleep);
+
+            Timeout t;
+            while ((t = scheduled.poll()) != null) {
+                if (!t.cancelled) {
+                    link(t, tick);
+                    count++;
+                }
+            }
+            while ((t = cancelled.poll()) != null) {
+                if (t.linked) {
+                    unlink(t);
+                    count--;
+                }
+            }
+
+            long now = System.nanoTime();
+            t = buckets[(int) (tick & mask)];
+            while (t != null) {
+                Timeout next = t.next;
+                if (t.rounds > 0) {
+                    t.rounds--;
+                } else {
+                    unlink(t);
+                    count--;
+                    long delay;
+                    try {
+                        delay = t.task.run(now);
+                    } catch (RuntimeException e) {
+                        Log.warn("Timer task failed: " + e);
+                        delay = 0;
+                    }
+                    if (delay > 0 && !t.cancelled) {
+                        t.deadline = now + delay;
+                        link(t, tick + 1);
+                        count++;
+                    }
+                }
+                t = next;
+            }
+            size = count;
+            tick++;
+        }
+    }
+
+    /**
+     * Puts a timeout in the bucket of its deadline, at the earliest the bucket of the next tick
+     *
+     * @param t    The timeout
+     * @param from First tick whose bucket is still to be run
+     */
+    private void link(Timeout t, long from) {
+        // Bucket n runs once tick n is over
+        long due = Math.max((t.deadline - startNanos + tickNanos - 1) / tickNanos - 1, tick + 1);
+        t.rounds = (due - from) >> Integer.numberOfTrailingZeros(buckets.length);
+        t.bucket = (int) (due & mask);
+        t.prev = null;
+        t.next = buckets[t.bucket];
+        if (t.next != null)
+            t.next.prev = t;
+        buckets[t.bucket] = t;
+        t.linked = true;
+    }
+
+    /**
+     * Takes a timeout out of its bucket
+     *
+     * @param t A linked timeout
+     */
+    private void unlink(Timeout t) {
+        if (t.prev != null)
+            t.prev.next = t.next;
+        else
+            buckets[t.bucket] = t.next;
+        if (t.next != null)
+            t.next.prev = t.prev;
+        t.prev = t.next = null;
+        t.linked = false;
+    }
+}
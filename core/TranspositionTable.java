@@ -0,0 +1,153 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * Fixed size transposition table for the AI search
+ * <p>
+ * Open addressing over two primitive arrays, one slot per bucket. An entry
+ * packs score, depth, bound type, best move and search generation into one
+ * {@code long}. A slot is replaced when it holds the same position, comes from
+ * an older search or was searched less deep than the new entry.
+ * <p>
+ * Search threads share one table without locking. Every slot stores
+ * {@code key ^ entry}, a slot torn by two racing writers fails the key check
+ * on the next probe and is treated as a miss.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+final class TranspositionTable {
+    /**
+     * Bound types, never 0 so a packed entry is never 0
+     */
+    static final int EXACT = 1, LOWER = 2, UPPER = 3;
+
+    // Bytes per slot, one key and one entry
+    private static final int SLOT_BYTES = 16;
+
+    private final long[] keys;
+    private final long[] entries;
+    private final int shift;
+    private int generation;
+
+    /**
+     * Instantiates an empty table
+     *
+     * @param megabytes Memory for the table, rounded down to a power of two amount of slots
+     */
+    TranspositionTable(int megabytes) {
+        if (megabytes <= 0)
+            throw new IllegalArgumentException("Table size must be positive: " + megabytes);
+        long slots = Long.highestOneBit(megabytes * 1024L * 1024L / SLOT_BYTES);
+        int bits = Math.min(Long.numberOfTrailingZeros(slots), 30);
+        keys = new long[1 << bits];
+        entries = new long[1 << bits];
+        shift = Long.SIZE - bits;
+    }
+
+    /**
+     * Starts a new search, entries of older searches become the first to be replaced
+     */
+    void newSearch() {
+        generation = (generation + 1) & 0xFF;
+    }
+
+    /**
+     * Removes every entry
+     */
+    void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(entries, 0);
+    }
+
+    /**
+     * @param key Position key
+     * @return The packed entry for {@code key}, 0 if there is none
+     */
+    long probe(long key) {
+        int i = index(key);
+        long entry = entries[i];
+        return (keys[i] ^ entry) == key ? entry : 0;
+    }
+
+    /**
+     * Stores a search result, subject to the replacement policy
+     *
+     * @param key   Position key
+     * @param score Score of the position
+     * @param depth Depth searched in plies
+     * @param bound {@link #EXACT}, {@link #LOWER} or {@link #UPPER}
+     * @param move  Zero based best column, -1 if unknown
+     */
+    void store(long key, int score, int depth, int bound, int move) {
+        int i = index(key);
+        long old = entries[i];
+        if (old != 0 && (keys[i] ^ old) != key && generation(old) == generation && depth(old) > depth)
+            return;
+
+        long entry = (score & 0xFFFFFFFFL)
+                | (long) (depth & 0xFF) << 32
+                | (long) bound << 40
+                | (long) (move & 0xFF) << 42
+                | (long) generation << 50;
+        keys[i] = key ^ entry;
+        entries[i] = entry;
+    }
+
+    /**
+     * @return Amount of slots in the table
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * @param key Position key
+     * @return Slot of {@code key}
+     */
+    private int index(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    /**
+     * @param entry Packed entry
+     * @return Score of the entry
+     */
+    static int score(long entry) {
+        return (int) entry;
+    }
+
+    /**
+     * @param entry Packed entry
+     * @return Depth of the entry in plies
+     */
+    static int depth(long entry) {
+        return (int) (entry >>> 32) & 0xFF;
+    }
+
+    /**
+     * @param entry Packed entry
+     * @return Bound type of the entry
+     */
+    static int bound(long entry) {
+        return (int) (entry >>> 40) & 0x3;
+    }
+
+    /**
+     * @param entry Packed entry
+     * @return Zero based best column, -1 if unknown
+     */
+    static int move(long entry) {
+        int m = (int) (entry >>> 42) & 0xFF;
+        return m == 0xFF ? -1 : m;
+    }
+
+    /**
+     * @param entry Packed entry
+     * @return Search generation that stored the entry
+     */
+    private static int generation(long entry) {
+        return (int) (entry >>> 50) & 0xFF;
+    }
+}
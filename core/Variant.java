@@ -0,0 +1,67 @@
+package core;
+
+/**
+ * Board size and pieces in a row of one game, negotiated in the handshake
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+final class Variant {
+    /**
+     * Largest width or height the server plays, columns travel as one signed byte
+     */
+    static final int MAX_SIZE = 32;
+
+    /**
+     * The classic game, played by every client that does not ask for another
+     */
+    static final Variant STANDARD = new Variant(Connect4.DEFAULT_COLUMNS, Connect4.DEFAULT_ROWS, Connect4.DEFAULT_CONNECT);
+
+    final int columns, rows, connect;
+
+    private Variant(int columns, int rows, int connect) {
+        this.columns = columns;
+        this.rows = rows;
+        this.connect = connect;
+    }
+
+    /**
+     * @param columns The amount of columns
+     * @param rows    The amount of rows
+     * @param connect Pieces in a row that win
+     * @return The variant, {@link #STANDARD} if the server does not play it
+     */
+    static Variant of(int columns, int rows, int connect) {
+        if (columns < 4 || columns > MAX_SIZE || rows < 4 || rows > MAX_SIZE
+                || connect < 3 || connect > Math.max(columns, rows))
+            return STANDARD;
+        if (columns == STANDARD.columns && rows == STANDARD.rows && connect == STANDARD.connect)
+            return STANDARD;
+        return new Variant(columns, rows, connect);
+    }
+
+    /**
+     * @return A new game of this variant
+     */
+    Connect4 newGame() {
+        return new Connect4(columns, rows, connect);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Variant))
+            return false;
+        Variant v = (Variant) o;
+        return columns == v.columns && rows == v.rows && connect == v.connect;
+    }
+
+    @Override
+    public int hashCode() {
+        return (columns * 31 + rows) * 31 + connect;
+    }
+
+    @Override
+    public String toString() {
+        return columns + "x" + rows + " connect " + connect;
+    }
+}
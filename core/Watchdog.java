@@ -0,0 +1,149 @@
+package core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Turn and idle deadlines of one session, checked by a {@link TimerWheel}
+ * <p>
+ * The seat to move has the turn timeout for its move. A seat that sent a
+ * heartbeat once is expected to keep sending something within the idle
+ * timeout, clients that never send heartbeats are only held to the turn
+ * timeout. The session only notes inputs and turns, which costs a field
+ * write, the timer looks at the deadlines whenever the earliest is due and
+ * calls {@link Expiry#expired(int)} on its thread once a seat is out of time.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+final class Watchdog implements TimerWheel.Task {
+    /**
+     * What a session does once a seat is out of time
+     */
+    interface Expiry {
+        /**
+         * Called once on the timer thread, must return quickly
+         *
+         * @param seat The seat out of time
+         */
+        void expired(int seat);
+    }
+
+    private final TimerWheel timer;
+    private final TimerWheel.Timeout timeout;
+    private final long turnNanos, idleNanos;
+    private final boolean bothSeats;
+    private final Expiry expiry;
+
+    // Last input per seat, 0 until the seat sends a heartbeat
+    private final AtomicLongArray heard = new AtomicLongArray(2);
+
+    // When the turn started with the seat to move in the lowest bit, one field so the timer never sees them apart
+    private volatile long turnClock;
+
+    // Turns of the match the clock was last started for, only touched by the session
+    private int turns;
+
+    /**
+     * Instantiates a watchdog, call {@link #start()} once the session starts
+     *
+     * @param timer      Timer checking the deadlines
+     * @param turnMillis Milliseconds the seat to move has for its move, 0 for no limit
+     * @param idleMillis Milliseconds a seat sending heartbeats may be silent, 0 for no limit
+     * @param bothSeats  boolean if the transport hears both seats, otherwise only the seat to move is held to the idle timeout
+     * @param expiry     What to do once a seat is out of time
+     */
+    Watchdog(TimerWheel timer, long turnMillis, long idleMillis, boolean bothSeats, Expiry expiry) {
+        this.timer = timer;
+        this.timeout = timer.newTimeout(this);
+        this.turnNanos = TimeUnit.MILLISECONDS.toNanos(turnMillis);
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        this.bothSeats = bothSeats;
+        this.expiry = expiry;
+    }
+
+    /**
+     * Starts the clock of seat 0, or restarts the timeout after {@link Expiry#expired(int)} turned out too early
+     */
+    void start() {
+        long now = System.nanoTime();
+        if (turnClock == 0)
+            turnClock = now & ~1L;
+        timer.schedule(timeout, remaining(now));
+    }
+
+    /**
+     * Stops watching, the session no longer exists
+     */
+    void stop() {
+        timer.cancel(timeout);
+    }
+
+    /**
+     * Notes an input, call for every input read
+     *
+     * @param seat      The seat it came from
+     * @param heartbeat boolean if it is a heartbeat
+     */
+    void heard(int seat, boolean heartbeat) {
+        if (heartbeat || heard.get(seat) != 0)
+            heard.set(seat, System.nanoTime());
+    }
+
+    /**
+     * Restarts the turn clock if the turn passed, call after every input handed to the match
+     *
+     * @param seat  Seat to move now
+     * @param turns {@link Connect4Match#getTurns()}
+     */
+    void turn(int seat, int turns) {
+        if (turns != this.turns) {
+            this.turns = turns;
+            turnClock = System.nanoTime() & ~1L | seat;
+        }
+    }
+
+    /**
+     * @param now Current {@link System#nanoTime()}
+     * @return The seat out of time, -1 if none is
+     */
+    int expired(long now) {
+        long clock = turnClock;
+        int seat = (int) (clock & 1);
+        if (turnNanos > 0 && now - clock >= turnNanos)
+            return seat;
+        for (int s = 0; s < 2 && idleNanos > 0; s++) {
+            long last = heard.get(s);
+            if (last != 0 && (bothSeats || s == seat) && now - last >= idleNanos)
+                return s;
+        }
+        return -1;
+    }
+
+    @Override
+    public long run(long now) {
+        int seat = expired(now);
+        if (seat < 0)
+            return remaining(now);
+        expiry.expired(seat);
+        return 0;
+    }
+
+    /**
+     * @param now Current {@link System#nanoTime()}
+     * @return Nanoseconds until the earliest deadline, at least 1 and at most the idle timeout
+     * so seats that start sending heartbeats later are watched too
+     */
+    private long remaining(long now) {
+        long clock = turnClock;
+        long left = turnNanos > 0 ? clock + turnNanos - now : Long.MAX_VALUE;
+        if (idleNanos > 0)
+            left = Math.min(left, idleNanos);
+        for (int s = 0; s < 2 && idleNanos > 0; s++) {
+            long last = heard.get(s);
+            if (last != 0 && (bothSeats || s == (int) (clock & 1)))
+                left = Math.min(left, last + idleNanos - now);
+        }
+        return Math.max(left, 1);
+    }
+}
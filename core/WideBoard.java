@@ -0,0 +1,264 @@
+package core;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Multi-word bitboard for boards larger than 64 bits
+ * <p>
+ * Same bit layout as {@link BitBoard} spread over an array of {@code long}s
+ * per player, bit {@code i} lives in word {@code i / 64}. Wins are found with
+ * the same shift-and over the whole array, keys are Zobrist hashes kept up to
+ * date on every move.
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+final class WideBoard implements Board {
+    private final int width, height, stride, connect, bits;
+    private final long[][] pieces;
+    private final int[] heights;
+    private final long[][] zobrist;
+    private final long side;
+    private long hash;
+    private int moves;
+
+    // Scratch words of isWin, a board is only ever used by one thread
+    private final long[] scratch;
+
+    /**
+     * Instantiates an empty board
+     *
+     * @param width   The amount of columns
+     * @param height  The amount of rows
+     * @param connect Pieces in a row that win
+     */
+    WideBoard(int width, int height, int connect) {
+        this.width = width;
+        this.height = height;
+        this.stride = height + 1;
+        this.connect = connect;
+        this.bits = width * stride;
+        int words = (bits + Long.SIZE - 1) / Long.SIZE;
+        this.pieces = new long[2][words];
+        this.heights = new int[width];
+        this.scratch = new long[words];
+
+        // Fixed seed, equal positions get equal keys in every process
+        SplittableRandom random = new SplittableRandom(0x436F6E6E656374L ^ bits);
+        this.zobrist = new long[2][bits];
+        for (int p = 0; p < 2; p++)
+            for (int i = 0; i < bits; i++)
+                zobrist[p][i] = random.nextLong();
+        this.side = random.nextLong();
+    }
+
+    /**
+     * Instantiates a copy of {@code other}
+     *
+     * @param other The board to copy
+     */
+    private WideBoard(WideBoard other) {
+        this.width = other.width;
+        this.height = other.height;
+        this.stride = other.stride;
+        this.connect = other.connect;
+        this.bits = other.bits;
+        this.pieces = new long[][]{other.pieces[0].clone(), other.pieces[1].clone()};
+        this.heights = other.heights.clone();
+        this.scratch = new long[other.scratch.length];
+        this.zobrist = other.zobrist; // Never written after construction
+        this.side = other.side;
+        this.hash = other.hash;
+        this.moves = other.moves;
+    }
+
+    @Override
+    public Board copy() {
+        return new WideBoard(this);
+    }
+
+    @Override
+    public void clear() {
+        for (long[] m : pieces)
+            Arrays.fill(m, 0);
+        Arrays.fill(heights, 0);
+        hash = 0;
+        moves = 0;
+    }
+
+    @Override
+    public boolean canPlay(int c) {
+        return heights[c] < height;
+    }
+
+    @Override
+    public int play(int c, int player) {
+        int r = heights[c]++;
+        int i = c * stride + r;
+        pieces[player][i >>> 6] |= 1L << i;
+        hash ^= zobrist[player][i];
+        moves++;
+        return r;
+    }
+
+    @Override
+    public void undo(int c, int player) {
+        int r = --heights[c];
+        int i = c * stride + r;
+        pieces[player][i >>> 6] &= ~(1L << i);
+        hash ^= zobrist[player][i];
+        moves--;
+    }
+
+    @Override
+    public int cell(int r, int c) {
+        int i = c * stride + r;
+        if (get(pieces[0], i))
+            return 0;
+        if (get(pieces[1], i))
+            return 1;
+        return -1;
+    }
+
+    @Override
+    public boolean isWin(int player) {
+        long[] m = pieces[player];
+        // Vertical, horizontal, diagonal up, diagonal down
+        return aligned(m, 1) || aligned(m, stride) || aligned(m, stride + 1) || aligned(m, stride - 1);
+    }
+
+    @Override
+    public boolean isWinAt(int r, int c) {
+        int owner = cell(r, c);
+        if (owner < 0)
+            return false;
+
+        long[] m = pieces[owner];
+        int pos = c * stride + r;
+        return run(m, pos, 1) || run(m, pos, stride) || run(m, pos, stride + 1) || run(m, pos, stride - 1);
+    }
+
+    /**
+     * Counts pieces on both sides of {@code pos}, the spare row stops a walk from crossing columns
+     *
+     * @param m     Piece words
+     * @param pos   Bit of the piece just played
+     * @param shift Bit distance between two neighbouring cells of a line
+     * @return boolean if the line along {@code shift} through {@code pos} holds {@code connect} pieces
+     */
+    private boolean run(long[] m, int pos, int shift) {
+        int count = 1;
+        for (int k = pos - shift; k >= 0 && get(m, k) && count < connect; k -= shift)
+            count++;
+        for (int k = pos + shift; k < bits && get(m, k) && count < connect; k += shift)
+            count++;
+        return count >= connect;
+    }
+
+    /**
+     * Shift-and over all words, see {@link BitBoard}
+     *
+     * @param m     Piece words
+     * @param shift Bit distance between two neighbouring cells of a line
+     * @return boolean if {@code m} contains {@code connect} consecutive cells along {@code shift}
+     */
+    private boolean aligned(long[] m, int shift) {
+        if ((connect - 1) * shift >= bits)
+            return false;
+        System.arraycopy(m, 0, scratch, 0, m.length);
+        int len = 1;
+        while (len * 2 <= connect) {
+            andShifted(scratch, len * shift);
+            len *= 2;
+        }
+        if (len < connect)
+            andShifted(scratch, (connect - len) * shift);
+        for (long w : scratch) {
+            if (w != 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * {@code x &= x >>> n} over all words, in place since word {@code i} only reads words at or above {@code i}
+     *
+     * @param x Words to update
+     * @param n Bits to shift by
+     */
+    private static void andShifted(long[] x, int n) {
+        int q = n >>> 6, b = n & 63;
+        for (int i = 0; i < x.length; i++) {
+            int lo = i + q;
+            long shifted = lo < x.length ? x[lo] >>> b : 0;
+            if (b != 0 && lo + 1 < x.length)
+                shifted |= x[lo + 1] << (Long.SIZE - b);
+            x[i] &= shifted;
+        }
+    }
+
+    /**
+     * @param m Piece words
+     * @param i Bit
+     * @return boolean if bit {@code i} is set
+     */
+    private static boolean get(long[] m, int i) {
+        return (m[i >>> 6] & (1L << i)) != 0;
+    }
+
+    @Override
+    public long key(int player) {
+        return player == 0 ? hash : hash ^ side;
+    }
+
+    @Override
+    public long mirrorKey(int player) {
+        long h = player == 0 ? 0 : side;
+        for (int c = 0; c < width; c++) {
+            int to = (width - 1 - c) * stride;
+            for (int r = 0; r < heights[c]; r++)
+                h ^= zobrist[cell(r, c)][to + r];
+        }
+        return h;
+    }
+
+    @Override
+    public int weigh(int player, int[] weights) {
+        long[] m = pieces[player];
+        int sum = 0;
+        for (int w = 0; w < m.length; w++) {
+            long word = m[w];
+            while (word != 0) {
+                sum += weights[w * Long.SIZE + Long.numberOfTrailingZeros(word)];
+                word &= word - 1;
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public int getHeight(int c) {
+        return heights[c];
+    }
+
+    @Override
+    public int getMoves() {
+        return moves;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getConnect() {
+        return connect;
+    }
+}
@@ -0,0 +1,201 @@
+package core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+/**
+ * Win and draw detection of both board backends against a plain scan of every line on the board
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+class BoardTest {
+    // Width, height and pieces in a row, the classic board, BitBoard edge cases and boards only WideBoard fits
+    private static final int[][] SIZES = {
+            {7, 6, 4}, {4, 4, 3}, {9, 6, 4}, {3, 20, 3}, {5, 5, 5},
+            {8, 7, 4}, {4, 15, 4}, {16, 3, 3}, {10, 10, 5}, {12, 11, 4}
+    };
+
+    private static final int PLAYOUTS = 300;
+
+    @Test
+    void createPicksBackendBySize() {
+        assertInstanceOf(BitBoard.class, Board.create(7, 6, 4));
+        assertInstanceOf(BitBoard.class, Board.create(9, 6, 4)); // 63 bits
+        assertInstanceOf(WideBoard.class, Board.create(8, 7, 4)); // 64 bits, bit 63 of a key is the player to move
+        assertInstanceOf(WideBoard.class, Board.create(16, 3, 3));
+    }
+
+    @Test
+    void winsMatchLineScanOnRandomPlayouts() {
+        SplittableRandom random = new SplittableRandom(1);
+        for (int[] size : SIZES) {
+            for (int i = 0; i < PLAYOUTS; i++) {
+                playout(Board.create(size[0], size[1], size[2]), random);
+                playout(new WideBoard(size[0], size[1], size[2]), random);
+            }
+        }
+    }
+
+    @Test
+    void connect4MatchesLineScan() {
+        SplittableRandom random = new SplittableRandom(2);
+        for (int[] size : SIZES) {
+            for (int i = 0; i < PLAYOUTS; i++) {
+                Connect4 game = new Connect4(size[0], size[1], size[2]);
+                Board shadow = new WideBoard(size[0], size[1], size[2]);
+                while (true) {
+                    int c = randomColumn(shadow, random);
+                    int mover = game.getPlayerIndex();
+                    assertEquals(Connect4.OK, game.update(c + 1));
+                    shadow.play(c, mover);
+                    boolean won = scan(shadow, mover);
+                    assertEquals(won, game.checkLastMoveWin());
+                    if (won) {
+                        assertEquals(mover, game.getPlayerIndex(), "The winner stays the current player");
+                        break;
+                    }
+                    assertEquals(isFull(shadow), game.isBoardFull());
+                    if (game.isBoardFull())
+                        break;
+                }
+            }
+        }
+    }
+
+    @Test
+    void undoRestoresEveryCell() {
+        SplittableRandom random = new SplittableRandom(3);
+        for (int[] size : SIZES) {
+            Board board = Board.create(size[0], size[1], size[2]);
+            int[] columns = new int[size[0] * size[1]];
+            int moves = 0;
+            while (moves < columns.length) {
+                columns[moves] = randomColumn(board, random);
+                board.play(columns[moves], moves & 1);
+                moves++;
+            }
+            assertEquals(columns.length, board.getMoves());
+            while (moves > 0) {
+                moves--;
+                board.undo(columns[moves], moves & 1);
+            }
+            assertEquals(0, board.getMoves());
+            for (int c = 0; c < size[0]; c++) {
+                assertEquals(0, board.getHeight(c));
+                for (int r = 0; r < size[1]; r++)
+                    assertEquals(-1, board.cell(r, c));
+            }
+        }
+    }
+
+    @Test
+    void bitBoardKeysAreUnique() {
+        SplittableRandom random = new SplittableRandom(4);
+        for (int[] size : new int[][]{{7, 6, 4}, {9, 6, 4}, {3, 20, 3}}) {
+            Map<Long, String> seen = new HashMap<>();
+            for (int i = 0; i < PLAYOUTS; i++) {
+                Board board = Board.create(size[0], size[1], size[2]);
+                for (int player = 0; board.getMoves() < size[0] * size[1]; player = 1 - player) {
+                    board.play(randomColumn(board, random), player);
+                    String cells = cells(board);
+                    String other = seen.putIfAbsent(board.key(1 - player), cells);
+                    if (other != null)
+                        assertEquals(other, cells, "Two positions share a key");
+                }
+            }
+        }
+    }
+
+    @Test
+    void mirrorKeyIsKeyOfMirroredBoard() {
+        SplittableRandom random = new SplittableRandom(5);
+        for (int[] size : SIZES) {
+            Board board = Board.create(size[0], size[1], size[2]);
+            Board mirror = Board.create(size[0], size[1], size[2]);
+            for (int player = 0; board.getMoves() < size[0] * size[1] / 2; player = 1 - player) {
+                int c = randomColumn(board, random);
+                board.play(c, player);
+                mirror.play(size[0] - 1 - c, player);
+                assertEquals(mirror.key(1 - player), board.mirrorKey(1 - player));
+            }
+        }
+    }
+
+    /**
+     * Plays random moves until someone wins or the board is full, checking every move
+     */
+    private static void playout(Board board, SplittableRandom random) {
+        for (int player = 0; ; player = 1 - player) {
+            int c = randomColumn(board, random);
+            int r = board.play(c, player);
+            assertEquals(player, board.cell(r, c));
+            boolean won = scan(board, player);
+            assertEquals(won, board.isWin(player), () -> "isWin on\n" + cells(board));
+            assertEquals(won, board.isWinAt(r, c), () -> "isWinAt on\n" + cells(board));
+            assertFalse(board.isWin(1 - player), () -> "Only the mover can have won\n" + cells(board));
+            if (won || isFull(board))
+                return;
+        }
+    }
+
+    /**
+     * @return A random column that still has room
+     */
+    private static int randomColumn(Board board, SplittableRandom random) {
+        int c;
+        do {
+            c = random.nextInt(board.getWidth());
+        } while (!board.canPlay(c));
+        return c;
+    }
+
+    /**
+     * The reference, tries every cell and direction the slow way
+     */
+    private static boolean scan(Board board, int player) {
+        int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+        for (int r = 0; r < board.getHeight(); r++) {
+            for (int c = 0; c < board.getWidth(); c++) {
+                for (int[] d : directions) {
+                    int n = 0;
+                    while (n < board.getConnect() && inside(board, r + n * d[0], c + n * d[1])
+                            && board.cell(r + n * d[0], c + n * d[1]) == player)
+                        n++;
+                    if (n == board.getConnect())
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean inside(Board board, int r, int c) {
+        return r >= 0 && r < board.getHeight() && c >= 0 && c < board.getWidth();
+    }
+
+    private static boolean isFull(Board board) {
+        for (int c = 0; c < board.getWidth(); c++) {
+            if (board.canPlay(c))
+                return false;
+        }
+        return board.getMoves() == board.getWidth() * board.getHeight();
+    }
+
+    private static String cells(Board board) {
+        StringBuilder s = new StringBuilder();
+        for (int r = board.getHeight() - 1; r >= 0; r--) {
+            for (int c = 0; c < board.getWidth(); c++)
+                s.append(".OX".charAt(board.cell(r, c) + 1));
+            s.append('\n');
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,130 @@
+package core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Move history of the game controller: taking moves back, replaying them and move lists
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+class Connect4Test {
+    @Test
+    void unmakeRestoresBoardAndPlayer() {
+        SplittableRandom random = new SplittableRandom(1);
+        for (int[] size : new int[][]{{7, 6, 4}, {8, 7, 4}, {12, 5, 4}}) {
+            Connect4 game = new Connect4(size[0], size[1], size[2]);
+            String[] boards = new String[size[0] * size[1] + 1];
+            int[] players = new int[boards.length];
+            int moves = 0;
+            boards[0] = game.getBoard();
+            players[0] = game.getPlayerIndex();
+            while (!game.isBoardFull()) {
+                if (game.update(1 + random.nextInt(size[0])) != Connect4.OK)
+                    continue;
+                moves++;
+                boards[moves] = game.getBoard();
+                players[moves] = game.getPlayerIndex();
+            }
+            while (moves > 0) {
+                int column = game.getMove(moves - 1);
+                assertEquals(column, game.unmake());
+                moves--;
+                assertEquals(moves, game.getMoveCount());
+                assertEquals(boards[moves], game.getBoard());
+                assertEquals(players[moves], game.getPlayerIndex());
+            }
+            assertEquals(0, game.unmake());
+        }
+    }
+
+    @Test
+    void undoThenRedoReplaysTheSameGame() {
+        Connect4 game = new Connect4();
+        assertTrue(game.playMoves("4455667"));
+        String board = game.getBoard(), moves = game.exportMoves();
+        assertTrue(game.checkLastMoveWin());
+
+        for (int i = 0; i < 3; i++)
+            assertTrue(game.undo());
+        assertEquals("4455", game.exportMoves());
+        assertEquals(0, game.getPlayerIndex());
+        for (int i = 0; i < 3; i++)
+            assertTrue(game.redo());
+        assertFalse(game.redo());
+        assertEquals(moves, game.exportMoves());
+        assertEquals(board, game.getBoard());
+        assertEquals(1, game.getPlayerIndex());
+    }
+
+    @Test
+    void newMoveDropsWhatWasTakenBack() {
+        Connect4 game = new Connect4();
+        game.playMoves("1234");
+        game.undo();
+        game.undo();
+        assertEquals(Connect4.OK, game.update(7));
+        assertFalse(game.redo());
+        assertEquals("127", game.exportMoves());
+    }
+
+    @Test
+    void exportedMovesPlayBackToTheSamePosition() {
+        SplittableRandom random = new SplittableRandom(2);
+        for (int[] size : new int[][]{{7, 6, 4}, {20, 4, 4}, {35, 3, 3}}) {
+            for (int i = 0; i < 50; i++) {
+                Connect4 game = new Connect4(size[0], size[1], size[2]);
+                int length = random.nextInt(size[0] * size[1] + 1);
+                while (game.getMoveCount() < length)
+                    game.update(1 + random.nextInt(size[0]));
+                Connect4 copy = new Connect4(size[0], size[1], size[2]);
+                assertTrue(copy.playMoves(game.exportMoves()));
+                assertEquals(game.exportMoves(), copy.exportMoves());
+                assertEquals(game.getBoard(), copy.getBoard());
+                assertEquals(game.getPlayerIndex(), copy.getPlayerIndex());
+            }
+        }
+    }
+
+    @Test
+    void playMovesStopsAtFirstInvalidMove() {
+        Connect4 game = new Connect4();
+        assertFalse(game.playMoves("12#3"));
+        assertEquals("12", game.exportMoves());
+        assertFalse(game.playMoves("8"));
+        assertFalse(game.playMoves("1111111"));
+        assertEquals(2 + 5, game.getMoveCount()); // Column 1 is full after five more
+    }
+
+    @Test
+    void exportNeedsAColumnCharacter() {
+        assertThrows(IllegalStateException.class, () -> new Connect4(36, 4, 4).exportMoves());
+    }
+
+    @Test
+    void updateReportsWhyAMoveFailed() {
+        Connect4 game = new Connect4();
+        assertEquals(Connect4.OUT_OF_RANGE, game.update(0));
+        assertEquals(Connect4.OUT_OF_RANGE, game.update(8));
+        for (int i = 0; i < 6; i++)
+            assertEquals(Connect4.OK, game.update(1));
+        assertEquals(Connect4.COLUMN_FULL, game.update(1));
+        assertFalse(game.update("x"));
+        assertFalse(game.update(""));
+        assertFalse(game.update("-1"));
+        assertFalse(game.update("+"));
+        assertFalse(game.update("+-2"));
+        assertFalse(game.update("99999999999999999999"));
+        assertTrue(game.update("2"));
+        assertTrue(game.update("+3"));
+        assertTrue(game.update("0000000000004"));
+        assertEquals(9, game.getMoveCount());
+    }
+}
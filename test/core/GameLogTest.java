@@ -0,0 +1,294 @@
+package core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Writing the game log, reading it back through the index and repairing it after a crash
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+class GameLogTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsBackWhatWasWritten() throws IOException {
+        GameLog log = new GameLog(dir, 1 << 20, 64);
+        for (int i = 0; i < 10; i++)
+            log.append(record(i));
+        log.close();
+
+        try (GameLog.Reader reader = new GameLog.Reader(dir)) {
+            assertEquals(10, reader.size());
+            assertEquals(10, reader.getNextId());
+            for (int i = 0; i < 10; i++)
+                assertRecord(i, reader.get(i));
+            assertThrows(IndexOutOfBoundsException.class, () -> reader.get(10));
+        }
+    }
+
+    @Test
+    void rollsSegmentsAndContinuesAfterRestart() throws IOException {
+        GameLog log = new GameLog(dir, 1024, 64);
+        for (int i = 0; i < 20; i++)
+            log.append(record(i));
+        log.close();
+        assertTrue(segments().size() > 1, "Small segments roll");
+
+        log = new GameLog(dir, 1024, 64);
+        for (int i = 20; i < 30; i++)
+            log.append(record(i));
+        log.close();
+
+        try (GameLog.Reader reader = new GameLog.Reader(dir)) {
+            assertEquals(30, reader.size());
+            for (int i = 0; i < 30; i++)
+                assertRecord(i, reader.get(i));
+        }
+    }
+
+    @Test
+    void cutsTornRecordOffOnRestart() throws IOException {
+        GameLog log = new GameLog(dir, 1 << 20, 64);
+        for (int i = 0; i < 5; i++)
+            log.append(record(i));
+        log.close();
+
+        // A crash in the middle of a write, a header promising more than what made it to disk
+        Path last = segments().get(segments().size() - 1);
+        long intact = Files.size(last);
+        try (FileChannel channel = FileChannel.open(last, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.allocate(20).putInt(100).putInt(42).flip());
+        }
+
+        log = new GameLog(dir, 1 << 20, 64);
+        assertEquals(intact, Files.size(last), "The torn record is cut off");
+        for (int i = 5; i < 8; i++)
+            log.append(record(i));
+        log.close();
+
+        try (GameLog.Reader reader = new GameLog.Reader(dir)) {
+            assertEquals(8, reader.size());
+            for (int i = 0; i < 8; i++)
+                assertRecord(i, reader.get(i));
+        }
+    }
+
+    @Test
+    void failedBatchIsCutOffAndLaterGamesSurvive() throws Exception {
+        Semaphore batches = new Semaphore(0);
+        FailingChannel[] channel = new FailingChannel[1];
+        GameLog log = new GameLog(dir, 1 << 20, 64, (file, options) ->
+                channel[0] = new FailingChannel(FileChannel.open(file, options), batches));
+        append(log, 0, batches);
+        channel[0].failNextWrite = true;
+        append(log, 1, batches); // Half of it reaches the segment before the write fails
+        append(log, 2, batches);
+        append(log, 3, batches);
+        log.close();
+
+        try (GameLog.Reader reader = new GameLog.Reader(dir)) {
+            assertEquals(3, reader.size());
+            assertEquals(4, reader.getNextId());
+            assertFalse(reader.has(1));
+            for (int i : new int[]{0, 2, 3})
+                assertRecord(i, reader.get(i));
+        }
+    }
+
+    @Test
+    void corruptRecordEndsTheIndex() throws IOException {
+        GameLog log = new GameLog(dir, 1 << 20, 64);
+        for (int i = 0; i < 3; i++)
+            log.append(record(i));
+        log.close();
+
+        // Flip a byte in the body of the last record, its checksum no longer matches
+        Path last = segments().get(0);
+        try (FileChannel channel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            long at = channel.size() - 1;
+            channel.read(b, at);
+            channel.write(b.put(0, (byte) (b.get(0) ^ 1)).position(0), at);
+        }
+
+        try (GameLog.Reader reader = new GameLog.Reader(dir)) {
+            assertEquals(2, reader.size());
+            assertFalse(reader.has(2));
+        }
+    }
+
+    /**
+     * Appends one game and waits until the writer synced or failed its batch
+     */
+    private static void append(GameLog log, int n, Semaphore batches) throws InterruptedException {
+        log.append(record(n));
+        assertTrue(batches.tryAcquire(5, TimeUnit.SECONDS));
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * @param n Game number, every field is derived from it
+     */
+    static GameRecord record(int n) {
+        byte[] moves = new byte[n % 20 + 1];
+        short[] millis = new short[moves.length];
+        for (int i = 0; i < moves.length; i++) {
+            moves[i] = (byte) (i % 7 + 1);
+            millis[i] = (short) (n * 10 + i);
+        }
+        return new GameRecord(1_000_000L + n, n * 100, 7, 6, 4, n % 4, n % 2 == 0,
+                new String[]{"player" + n, "opponent" + n}, moves, millis);
+    }
+
+    static void assertRecord(int n, GameRecord actual) {
+        GameRecord expected = record(n);
+        assertEquals(n, actual.id);
+        assertEquals(expected.startMillis, actual.startMillis);
+        assertEquals(expected.durationMillis, actual.durationMillis);
+        assertEquals(expected.result, actual.result);
+        assertEquals(expected.againstAi, actual.againstAi);
+        assertArrayEquals(expected.players, actual.players);
+        assertArrayEquals(expected.moves, actual.moves);
+        assertArrayEquals(expected.moveMillis, actual.moveMillis);
+    }
+
+    /**
+     * A segment whose next write can be made to fail halfway, like a disk filling up
+     */
+    private static final class FailingChannel extends FileChannel {
+        private final FileChannel channel;
+        private final Semaphore batches;
+        volatile boolean failNextWrite;
+
+        FailingChannel(FileChannel channel, Semaphore batches) {
+            this.channel = channel;
+            this.batches = batches;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (!failNextWrite)
+                return channel.write(src);
+            failNextWrite = false;
+            int limit = src.limit();
+            src.limit(src.position() + src.remaining() / 2);
+            channel.write(src);
+            src.limit(limit);
+            batches.release();
+            throw new IOException("No space left on device");
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            channel.force(metaData);
+            batches.release();
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return channel.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return channel.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Book lookups, and books that cannot be used falling back to the search without throwing
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+class OpeningBookTest {
+    private static final int MAGIC = 0x43344250, VERSION = 1;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void findsPositionAndItsMirror() throws IOException {
+        Board board = Board.create(7, 6, 4);
+        board.play(0, 0);
+        Board mirror = Board.create(7, 6, 4);
+        mirror.play(6, 0);
+        long key = Math.min(board.key(1), board.mirrorKey(1));
+        int move = board.key(1) <= board.mirrorKey(1) ? 1 : 5;
+        OpeningBook book = new OpeningBook(write(book(7, 6, 4, 1, key, move)));
+
+        assertEquals(1, book.lookup(board, 1));
+        assertEquals(5, book.lookup(mirror, 1));
+        assertEquals(-1, book.lookup(Board.create(7, 6, 4), 0));
+    }
+
+    @Test
+    void unusableBooksMiss() throws IOException {
+        Board board = Board.create(7, 6, 4);
+        Path[] books = {
+                dir.resolve("missing.book"),
+                write(ByteBuffer.allocate(10).putInt(MAGIC).putInt(VERSION)), // Cut off in the header
+                write(book(7, 6, 4, 1000, 0, 0)), // Fewer entries than the header says
+                write(book(0, 6, 4, 1, 0, 0)),
+                write(book(7, 6, 4, 1, Math.min(board.key(0), board.mirrorKey(0)), 9)) // Move off the board
+        };
+        for (Path path : books) {
+            OpeningBook book = new OpeningBook(path);
+            assertEquals(-1, book.lookup(board, 0), path.toString());
+            assertEquals(-1, book.lookup(board, 0), path.toString());
+        }
+    }
+
+    @Test
+    void bookTooLargeToMapMisses() throws IOException {
+        Path path = dir.resolve("huge.book");
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(Integer.MAX_VALUE + 1L); // Sparse, takes no disk space
+        }
+        OpeningBook book = new OpeningBook(path);
+        Board board = Board.create(7, 6, 4);
+        assertEquals(-1, book.lookup(board, 0));
+        assertEquals(-1, book.lookup(board, 0));
+    }
+
+    /**
+     * A book of at most one entry, {@code count} may claim more
+     */
+    private static ByteBuffer book(int width, int height, int plies, int count, long key, int move) {
+        return ByteBuffer.allocate(4 + 4 + 3 + 4 + 9).putInt(MAGIC).putInt(VERSION)
+                .put((byte) width).put((byte) height).put((byte) plies).putInt(count)
+                .putLong(key).put((byte) move);
+    }
+
+    private Path write(ByteBuffer contents) throws IOException {
+        Path path = Files.createTempFile(dir, "opening", ".book");
+        Files.write(path, contents.array());
+        return path;
+    }
+}
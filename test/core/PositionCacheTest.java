@@ -0,0 +1,74 @@
+package core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Cached moves are played only when solved or as deep as a search with the AI's budget gets
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+class PositionCacheTest {
+    private static final long TIME_BUDGET = 200;
+
+    @Test
+    void expectedDepthIsKeptPerBudgetAndPosition() {
+        PositionCache cache = new PositionCache(1);
+        Board board = Board.create(7, 6, 4);
+        assertEquals(0, cache.expectedDepth(board, TIME_BUDGET));
+        cache.searched(board, TIME_BUDGET, 12);
+        assertEquals(12, cache.expectedDepth(board, TIME_BUDGET));
+        cache.searched(board, TIME_BUDGET, 8);
+        assertEquals(11, cache.expectedDepth(board, TIME_BUDGET));
+
+        assertEquals(0, cache.expectedDepth(board, TIME_BUDGET * 2));
+        assertEquals(0, cache.expectedDepth(Board.create(9, 6, 4), TIME_BUDGET));
+        board.play(3, 0);
+        assertEquals(0, cache.expectedDepth(board, TIME_BUDGET));
+    }
+
+    @Test
+    void shallowEntryIsSearchedAgain() {
+        PositionCache cache = new PositionCache(1);
+        Board board = opening();
+        cache.store(board, 0, 0, 0, 1, false);
+        cache.searched(board, TIME_BUDGET, 8);
+
+        Connect4ComputerPlayer ai = ai(cache);
+        ai.generate(board.copy(), 0, Long.MAX_VALUE);
+        assertTrue(ai.getNodes() > 0, "A depth 1 entry is below what the budget reaches");
+        ai.shutdown();
+    }
+
+    @Test
+    void deepEntryIsPlayed() {
+        PositionCache cache = new PositionCache(1);
+        Board board = opening();
+        cache.store(board, 0, 0, 0, 20, false);
+        cache.searched(board, TIME_BUDGET, 8);
+
+        Connect4ComputerPlayer ai = ai(cache);
+        int move = ai.generate(board.copy(), 0, Long.MAX_VALUE);
+        assertEquals(0, ai.getNodes());
+        assertEquals(20, ai.getDepth());
+        assertEquals(1, move);
+        ai.shutdown();
+    }
+
+    private static Board opening() {
+        Board board = Board.create(7, 6, 4);
+        board.play(3, 0);
+        board.play(2, 1);
+        return board;
+    }
+
+    private static Connect4ComputerPlayer ai(PositionCache cache) {
+        Connect4ComputerPlayer ai = new Connect4ComputerPlayer(TIME_BUDGET, 1_000_000, 1, 1);
+        ai.setOpeningBook(null);
+        ai.setPositionCache(cache);
+        return ai;
+    }
+}
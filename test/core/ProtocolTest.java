@@ -0,0 +1,173 @@
+package core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Handshakes and messages of every protocol version, through a blocking server seat over loopback
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+class ProtocolTest {
+    private ServerSocketChannel server;
+    private Socket client;
+    private SocketTicket seat;
+
+    @BeforeEach
+    void connect() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        client = new Socket(InetAddress.getLoopbackAddress(), server.socket().getLocalPort());
+        client.setSoTimeout(5000);
+        seat = new SocketTicket(server.accept());
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        seat.close();
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void stringProtocolWithoutHello() throws Exception {
+        DataOutputStream out = new DataOutputStream(client.getOutputStream());
+        out.writeUTF("3");
+        out.writeUTF("r");
+        out.writeUTF("q");
+        out.writeUTF("p");
+        out.writeUTF("x");
+        out.flush();
+        handshake();
+        assertEquals(Variant.STANDARD, seat.getVariant());
+        assertFalse(seat.wantsAi());
+
+        seat.open();
+        assertEquals(3, seat.read());
+        assertEquals(Protocol.IN_RESET, seat.read());
+        assertEquals(Protocol.IN_QUIT, seat.read());
+        assertEquals(Protocol.IN_PING, seat.read());
+        assertEquals(Protocol.IN_INVALID, seat.read());
+
+        seat.send(Protocol.OP_PLAYER, 1);
+        seat.send(Protocol.OP_STATUS, Protocol.WIN);
+        seat.send(Protocol.OP_MOVE, 12);
+        seat.flush();
+        DataInputStream in = new DataInputStream(client.getInputStream());
+        assertEquals("X", in.readUTF());
+        assertEquals("-2", in.readUTF());
+        assertEquals("12", in.readUTF());
+    }
+
+    @Test
+    void version1HasNoVariant() throws Exception {
+        // The hello and the first move arrive together, the move must survive the handshake
+        client.getOutputStream().write(new byte[]{(byte) Protocol.HELLO, 1, Protocol.OP_MOVE, 4});
+        handshake();
+        assertEquals(Variant.STANDARD, seat.getVariant());
+
+        DataInputStream in = new DataInputStream(client.getInputStream());
+        assertEquals(Protocol.HELLO, in.readUnsignedByte());
+        assertEquals(1, in.readUnsignedByte());
+        seat.open();
+        assertEquals(4, seat.read());
+
+        seat.send(Protocol.OP_STATUS, Protocol.INVALID);
+        seat.flush();
+        assertEquals(Protocol.OP_STATUS, in.readUnsignedByte());
+        assertEquals(Protocol.INVALID, in.readByte());
+    }
+
+    @Test
+    void version2NegotiatesTheVariant() throws Exception {
+        client.getOutputStream().write(new byte[]{(byte) Protocol.HELLO, 2, 9, 7, 5});
+        handshake();
+        assertEquals(Variant.of(9, 7, 5), seat.getVariant());
+        assertFalse(seat.wantsAi());
+        assertAck(2, 9, 7, 5);
+    }
+
+    @Test
+    void version3AsksForTheAi() throws Exception {
+        client.getOutputStream().write(new byte[]{(byte) Protocol.HELLO, 3, 8, 8, 4, Protocol.OPPONENT_AI,
+                Protocol.OP_RESET, 0, Protocol.OP_QUIT, 0});
+        handshake();
+        assertEquals(Variant.of(8, 8, 4), seat.getVariant());
+        assertTrue(seat.wantsAi());
+        assertAck(3, 8, 8, 4);
+        seat.open();
+        assertEquals(Protocol.IN_RESET, seat.read());
+        assertEquals(Protocol.IN_QUIT, seat.read());
+    }
+
+    @Test
+    void unknownVariantAndNewerVersionFallBack() throws Exception {
+        client.getOutputStream().write(new byte[]{(byte) Protocol.HELLO, 9, 2, 2, 2, Protocol.OPPONENT_PLAYER});
+        handshake();
+        assertEquals(Variant.STANDARD, seat.getVariant());
+        assertAck(Protocol.VERSION, Connect4.DEFAULT_COLUMNS, Connect4.DEFAULT_ROWS, Connect4.DEFAULT_CONNECT);
+    }
+
+    @Test
+    void helloLengthPerVersion() {
+        assertEquals(2, Protocol.helloLength(1));
+        assertEquals(2 + Protocol.VARIANT_BYTES, Protocol.helloLength(Protocol.VERSION_VARIANTS));
+        assertEquals(3 + Protocol.VARIANT_BYTES, Protocol.helloLength(Protocol.VERSION_OPPONENT));
+        assertEquals(3 + Protocol.VARIANT_BYTES, Protocol.helloLength(200));
+    }
+
+    @Test
+    void textRoundTrips() {
+        for (int column = 1; column <= Variant.MAX_SIZE; column++)
+            assertEquals(column, Protocol.parse(Protocol.toText(Protocol.OP_MOVE, column)));
+        assertEquals(Protocol.IN_INVALID, Protocol.parse(""));
+        assertEquals(Protocol.IN_INVALID, Protocol.parse("1234"));
+        assertEquals(Protocol.IN_INVALID, Protocol.parse("+3"));
+        assertEquals(Protocol.IN_INVALID, Protocol.decode(Protocol.OP_MOVE, 0));
+        assertEquals(Protocol.IN_INVALID, Protocol.decode(Protocol.OP_PLAYER, 1));
+        assertEquals("O", Protocol.toText(Protocol.OP_PLAYER, 0));
+        assertEquals("-1", Protocol.toText(Protocol.OP_STATUS, Protocol.ERROR));
+        assertEquals("100", Protocol.toText(Protocol.OP_MOVE, 100));
+    }
+
+    /**
+     * Peeks at the seat until the handshake is done
+     */
+    private void handshake() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        int state;
+        while ((state = seat.handshake(false)) == Matchmaker.Ticket.WAITING) {
+            if (System.currentTimeMillis() > deadline)
+                fail("No handshake");
+            Thread.sleep(5);
+        }
+        assertEquals(Matchmaker.Ticket.READY, state);
+    }
+
+    /**
+     * Reads the server's hello
+     */
+    private void assertAck(int version, int columns, int rows, int connect) throws IOException {
+        DataInputStream in = new DataInputStream(client.getInputStream());
+        assertEquals(Protocol.HELLO, in.readUnsignedByte());
+        assertEquals(version, in.readUnsignedByte());
+        assertEquals(columns, in.readUnsignedByte());
+        assertEquals(rows, in.readUnsignedByte());
+        assertEquals(connect, in.readUnsignedByte());
+    }
+}
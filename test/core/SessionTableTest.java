@@ -0,0 +1,96 @@
+package core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Table slots play exactly like {@link Connect4} on the same moves
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+class SessionTableTest {
+    @Test
+    void fitsOnlyWhatABitBoardHolds() {
+        assertTrue(SessionTable.fits(Variant.STANDARD));
+        assertTrue(SessionTable.fits(Variant.of(9, 6, 4)));
+        assertFalse(SessionTable.fits(Variant.of(8, 7, 4)));
+        assertFalse(SessionTable.fits(Variant.of(20, 20, 4)));
+        assertInstanceOf(SessionTable.Slot.class, GameState.create(Variant.STANDARD));
+        assertInstanceOf(GameState.OnHeap.class, GameState.create(Variant.of(8, 7, 4)));
+    }
+
+    @Test
+    void slotMatchesConnect4() {
+        SplittableRandom random = new SplittableRandom(1);
+        for (Variant variant : new Variant[]{Variant.STANDARD, Variant.of(9, 6, 5), Variant.of(4, 4, 3),
+                Variant.of(5, 9, 4)}) {
+            for (int i = 0; i < 200; i++) {
+                SessionTable.Slot slot = SessionTable.get().allocate(variant);
+                Connect4 game = variant.newGame();
+                play(slot, game, random);
+                // A reset keeps the player to move, as a rematch does
+                slot.initBoard();
+                game.initBoard();
+                assertEquals(game.getPlayerIndex(), slot.getPlayerIndex());
+                play(slot, game, random);
+                slot.release();
+            }
+        }
+    }
+
+    @Test
+    void freedSlotsAreReused() {
+        SessionTable table = SessionTable.get();
+        int live = table.size();
+        SessionTable.Slot[] slots = new SessionTable.Slot[100];
+        for (int i = 0; i < slots.length; i++)
+            slots[i] = table.allocate(Variant.STANDARD);
+        assertEquals(live + slots.length, table.size());
+        long reserved = table.getReservedBytes();
+        for (SessionTable.Slot slot : slots) {
+            slot.release();
+            slot.release(); // Twice is harmless
+        }
+        assertEquals(live, table.size());
+
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = table.allocate(Variant.STANDARD);
+            assertEquals(0, slots[i].getMoveCount(), "A reused slot starts empty");
+        }
+        assertEquals(reserved, table.getReservedBytes());
+        for (SessionTable.Slot slot : slots)
+            slot.release();
+    }
+
+    /**
+     * Plays random moves, out of range and full columns included, until the game ends
+     */
+    private static void play(GameState slot, Connect4 game, SplittableRandom random) {
+        int columns = game.getColumnBoardSize();
+        while (true) {
+            int column = random.nextInt(columns + 2);
+            assertEquals(game.update(column), slot.update(column));
+            assertEquals(game.getPlayerIndex(), slot.getPlayerIndex());
+            assertEquals(game.checkLastMoveWin(), slot.checkLastMoveWin());
+            assertEquals(game.getPlayerIndex(), slot.getPlayerIndex());
+            assertEquals(game.isBoardFull(), slot.isBoardFull());
+            assertEquals(game.getMoveCount(), slot.getMoveCount());
+            for (int ply = 0; ply < game.getMoveCount(); ply++)
+                assertEquals(game.getMove(ply), slot.getMove(ply));
+            Board board = slot.copyBoard();
+            for (int r = 1; r <= game.getRowBoardSize(); r++) {
+                for (int c = 1; c <= columns; c++)
+                    assertEquals(game.getCell(r, c), board.cell(r - 1, c - 1));
+            }
+            if (game.isBoardFull() || game.getMoveCount() > 0 && board.isWin(game.getPlayerIndex()))
+                return;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Timeouts run in deadline order, never early and at most about a tick late
+ *
+ * @author Joshua Kronemeyer
+ * @version 1.0
+ */
+class TimerWheelTest {
+    private static final long TICK_MILLIS = 5;
+
+    @Test
+    void runsInDeadlineOrder() throws InterruptedException {
+        // A small wheel, the later timeouts wait several rounds
+        TimerWheel timer = new TimerWheel(TICK_MILLIS, 8);
+        timer.start();
+        long[] delays = {120, 10, 300, 55, 30, 200, 75};
+        List<Long> ran = new CopyOnWriteArrayList<>();
+        List<Long> early = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(delays.length);
+        for (long delay : delays) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            timer.schedule(timer.newTimeout(now -> {
+                if (System.nanoTime() < deadline)
+                    early.add(delay);
+                ran.add(delay);
+                done.countDown();
+                return 0;
+            }), TimeUnit.MILLISECONDS.toNanos(delay));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(10L, 30L, 55L, 75L, 120L, 200L, 300L), ran);
+        assertEquals(List.of(), early, "Ran before their deadline");
+    }
+
+    @Test
+    void cancelledTimeoutNeverRuns() throws InterruptedException {
+        TimerWheel timer = new TimerWheel(TICK_MILLIS, 16);
+        timer.start();
+        AtomicInteger runs = new AtomicInteger();
+        TimerWheel.Timeout cancelled = timer.newTimeout(now -> {
+            runs.incrementAndGet();
+            return 0;
+        });
+        timer.schedule(cancelled, TimeUnit.MILLISECONDS.toNanos(40));
+        CountDownLatch later = new CountDownLatch(1);
+        timer.schedule(timer.newTimeout(now -> {
+            later.countDown();
+            return 0;
+        }), TimeUnit.MILLISECONDS.toNanos(100));
+        Thread.sleep(10);
+        timer.cancel(cancelled);
+
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+        Thread.sleep(2 * TICK_MILLIS);
+        assertEquals(0, timer.size());
+    }
+
+    @Test
+    void taskReturningTimeLeftRunsAgain() throws InterruptedException {
+        TimerWheel timer = new TimerWheel(TICK_MILLIS, 16);
+        timer.start();
+        long start = System.nanoTime(), deadline = start + TimeUnit.MILLISECONDS.toNanos(150);
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+        // Scheduled early, as a session does before its deadline moves out
+        timer.schedule(timer.newTimeout(now -> {
+            runs.incrementAndGet();
+            if (now < deadline)
+                return deadline - now;
+            done.countDown();
+            return 0;
+        }), TimeUnit.MILLISECONDS.toNanos(20));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() >= deadline);
+        assertEquals(2, runs.get());
+    }
+}
@@ -1,5 +1,9 @@
 package ui;
 
+import core.Connect4;
+import core.Protocol;
+
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
@@ -8,12 +12,19 @@ import java.net.Socket;
 
 /**
  * Helper for clients to connect/send moves to Connect4Server
+ * <p>
+ * Speaks the binary {@link Protocol}, every message is an opcode and a value.
+ * A daemon thread sends heartbeats so the server knows a client waiting on
+ * its opponent is still there.
  *
  * @author Joshua Kronemeyer
  * @version 1.0
  * @date 4 /09/2019
  */
 class Connect4Client {
+    // Milliseconds between heartbeats, well below the server's idle timeout
+    private static final long HEARTBEAT_MILLIS = 10000;
+
     private final DataInputStream dIn;
     private final DataOutputStream dOut;
     private int lastQuery;
@@ -21,16 +32,48 @@ class Connect4Client {
     /**
      * Connect to client
      *
+     * @param ai boolean if the server AI is the opponent, otherwise the server pairs us with another player
      * @throws IOException When it cannot connect to server
      */
-    Connect4Client() throws IOException {
+    Connect4Client(boolean ai) throws IOException {
         InetAddress ip = InetAddress.getByName("localhost");
         Socket s = new Socket(ip, 8082);
+        s.setTcpNoDelay(true); // Every message is one small write that should leave at once
 
-        dIn = new DataInputStream(s.getInputStream());
+        dIn = new DataInputStream(new BufferedInputStream(s.getInputStream()));
         dOut = new DataOutputStream(s.getOutputStream());
 
+        // The console and GUI draw the classic board
+        dOut.write(new byte[]{(byte) Protocol.HELLO, (byte) Protocol.VERSION,
+                (byte) Connect4.DEFAULT_COLUMNS, (byte) Connect4.DEFAULT_ROWS, (byte) Connect4.DEFAULT_CONNECT,
+                (byte) (ai ? Protocol.OPPONENT_AI : Protocol.OPPONENT_PLAYER)});
+        if (dIn.readUnsignedByte() != Protocol.HELLO)
+            throw new IOException("Server does not speak the binary protocol");
+        int version = dIn.readUnsignedByte();
+        if (version < 1)
+            throw new IOException("Server does not speak the binary protocol");
+        if (version >= Protocol.VERSION_VARIANTS)
+            dIn.skipBytes(Protocol.VARIANT_BYTES);
+
         System.out.println("Connected: " + s.toString());
+
+        Thread heartbeat = new Thread(this::heartbeat, "connect4-heartbeat");
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+    }
+
+    /**
+     * Sends heartbeats until the connection is gone
+     */
+    private void heartbeat() {
+        try {
+            while (true) {
+                Thread.sleep(HEARTBEAT_MILLIS);
+                send(Protocol.OP_PING, 0);
+            }
+        } catch (IOException | InterruptedException e) {
+            // Connection closed, nothing left to keep alive
+        }
     }
 
     /**
@@ -40,7 +83,7 @@ class Connect4Client {
      * @throws IOException the io exception
      */
     String getInitial() throws IOException {
-        return dIn.readUTF();
+        return read(Protocol.OP_PLAYER) == 0 ? "O" : "X";
     }
 
     /**
@@ -51,10 +94,15 @@ class Connect4Client {
      * @throws IOException Unable to connect to server
      */
     int sendMove(String s) throws IOException {
-        dOut.writeUTF(s);
-        s = dIn.readUTF();
-        lastQuery = Integer.parseInt(s);
-        return Integer.parseInt(s);
+        if (s.equals("r"))
+            send(Protocol.OP_RESET, 0);
+        else if (s.equals("q"))
+            send(Protocol.OP_QUIT, 0);
+        else
+            send(Protocol.OP_MOVE, column(s));
+
+        lastQuery = read(Protocol.OP_STATUS);
+        return lastQuery;
     }
 
     /**
@@ -73,7 +121,49 @@ class Connect4Client {
      * @throws IOException the io exception
      */
     int getPlayerMove() throws IOException {
-        String s = dIn.readUTF();
-        return Integer.parseInt(s);
+        int op = dIn.readUnsignedByte(); // A column, or the win status followed by the column
+        int value = dIn.readByte();
+        if (op == Protocol.OP_STATUS && value == Protocol.TIMEOUT)
+            throw new IOException("A player ran out of time, the game is over");
+        return value;
+    }
+
+    /**
+     * @param s Column as typed
+     * @return The column, 0 if it is not a small number so the server rejects it
+     */
+    private static int column(String s) {
+        try {
+            int c = Integer.parseInt(s);
+            return c > 0 && c <= Byte.MAX_VALUE ? c : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @param op    Opcode
+     * @param value Column or 0
+     * @throws IOException Unable to connect to server
+     */
+    private synchronized void send(int op, int value) throws IOException {
+        dOut.write(new byte[]{(byte) op, (byte) value});
+    }
+
+    /**
+     * Reads one message that must have opcode {@code op}
+     *
+     * @param op Expected opcode
+     * @return The value of the message
+     * @throws IOException Unable to connect to server or unexpected message
+     */
+    private int read(int op) throws IOException {
+        int got = dIn.readUnsignedByte();
+        int value = dIn.readByte();
+        if (got == Protocol.OP_STATUS && value == Protocol.TIMEOUT)
+            throw new IOException("A player ran out of time, the game is over");
+        if (got != op)
+            throw new IOException("Unexpected message " + got);
+        return value;
     }
 }
\ No newline at end of file
@@ -1,7 +1,6 @@
 package ui;
 
 import core.Connect4;
-import core.Connect4ComputerPlayer;
 import javafx.animation.FadeTransition;
 import javafx.animation.FillTransition;
 import javafx.animation.PauseTransition;
@@ -41,7 +40,6 @@ public class Connect4GUI extends Application {
     private int animationSpeed = 150; // DEBUG VALUE - If you wish to speed up the rate at which the pieces fall
     private boolean ai_Enabled = false;
     private String playerId;
-    private Connect4ComputerPlayer ai;
 
     // Our Connect4 Game Instance
     private Connect4 game = new Connect4();
@@ -65,8 +63,13 @@ public class Connect4GUI extends Application {
     public void start(Stage primaryStage) throws IOException {
         // Basic Framework for our GUI
         try {
-            System.out.println("Waiting on other client...");
-            c = new Connect4Client();
+            // The AI plays on the server, the client only picks it as opponent
+            ButtonType aiBtn = new ButtonType("AI");
+            ButtonType playerBtn = new ButtonType("Player");
+            Alert instructions = new Alert(Alert.AlertType.NONE, "Welcome to Connect4! Simply click anywhere on the column to drop your piece in.\n Play against the AI or another player?", aiBtn, playerBtn);
+            ai_Enabled = instructions.showAndWait().orElse(playerBtn) == aiBtn;
+            System.out.println(ai_Enabled ? "Starting a game against the AI..." : "Waiting on other client...");
+            c = new Connect4Client(ai_Enabled);
             root = new VBox();
             lblPlayer = new Label();
             board = new GridPane();
@@ -81,17 +84,6 @@ public class Connect4GUI extends Application {
             primaryStage.setTitle("Connect4GUI");
             primaryStage.show();
 
-            /* TO DO: PROMPT FOR AI/PLAYER -- AI CURRENTLY DISABLED
-            ButtonType aiBtn = new ButtonType("ai");
-            ButtonType playerBtn = new ButtonType("player");
-            // Show our instructions
-            Alert instructions = new Alert(Alert.AlertType.NONE, "Welcome to Connect4! Simply click anywhere on the column to drop your piece in.\n We are waiting for another client to connect.", ButtonType.OK);
-            Optional<ButtonType> in = instructions.showAndWait();
-            if (in.get() == aiBtn) {
-                ai_Enabled = true;
-                ai = new Connect4ComputerPlayer();
-            }*/
-
             // DEBUG ANIMATION SPEED SLIDER - THIS WILL BREAK MULTIPLAYER IN SOME WAYS
             if (DEBUG) {
                 Slider slider;
@@ -105,7 +97,6 @@ public class Connect4GUI extends Application {
 
             // X Indicates 2nd player
             if (playerId.equals("X")) {
-                lblPlayer.setText("Waiting on other player...");
                 waitOnOpponent();
             }
 
@@ -165,7 +156,7 @@ public class Connect4GUI extends Application {
     }
 
     private void waitOnOpponent() throws IOException {
-        lblPlayer.setText("Waiting on other player...");
+        lblPlayer.setText(ai_Enabled ? "AI is thinking..." : "Waiting on other player...");
         board.setDisable(true);
         PauseTransition p = new PauseTransition(Duration.millis(animationSpeed * 30));
         PauseTransition win = new PauseTransition(Duration.millis(animationSpeed * 30));
@@ -175,13 +166,13 @@ public class Connect4GUI extends Application {
             try {
                 int opponentMove = c.getPlayerMove();
                 if (opponentMove != -2) {
-                    game.update(Integer.toString(opponentMove));
+                    game.update(opponentMove);
                     animateFall(opponentMove);
                     board.setDisable(false);
                     lblPlayer.setText("Player " + playerId);
                 } else if (opponentMove == -2) {
                     opponentMove = c.getPlayerMove();
-                    game.update(Integer.toString(opponentMove));
+                    game.update(opponentMove);
                     animateFall(opponentMove);
                     win.play();
                 }
@@ -219,12 +210,12 @@ public class Connect4GUI extends Application {
                 lblPlayer.setText("Invalid Move: Try again.");
                 break;
             case -2:
-                game.update(Integer.toString(col));
+                game.update(col);
                 animateFall(col);
                 win.play();
                 break;
             case 0:
-                game.update(Integer.toString(col));
+                game.update(col);
                 animateFall(col);
                 waitOnOpponent();
                 break;
@@ -232,26 +223,6 @@ public class Connect4GUI extends Application {
                 new Alert(Alert.AlertType.NONE, "CAPTAIN! SOMETHING WENT WRONG! THE SHIPS GOING DOWN!", ButtonType.CLOSE);
                 Platform.exit();
         }
-
-        /* TO DO: IMPLEMENT PROPER AI CONTROL VIA SERVER
-        *  CODE BELOW NEVER GETS CALLED CURRENTLY */
-        if (ai_Enabled && query != -2) {
-            lblPlayer.setText("Player " + game.getCurrentPlayer() + " is thinking...");
-            query = c.sendMove(ai.generate(col));
-            p.setOnFinished(e -> {
-                if (c.getLastQuery() == -2) {
-                    checkWin(game.getCurrentPlayer());
-                } else {
-                    animateFall(ai.getAiMove());
-                    lblPlayer.setText("Player " + game.getCurrentPlayer());
-                }
-            });
-            while (query == 1) {
-                query = c.sendMove(ai.generate(ai.getAiMove()));
-            }
-            game.update(Integer.toString(ai.getAiMove()));
-            p.play();
-        }
     }
 
     /**
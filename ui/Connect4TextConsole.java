@@ -1,13 +1,11 @@
 package ui;
 
 import core.Connect4;
-import core.Connect4ComputerPlayer;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 
-import static java.lang.Thread.sleep;
-
 /**
  * The type Connect 4 console UI & Menu Selection
  *
@@ -20,6 +18,7 @@ public class Connect4TextConsole {
     private static BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
     private static Connect4 game;
     private static Connect4Client c;
+    private static String opponent;
 
     /**
      * The entry point of application.
@@ -29,7 +28,7 @@ public class Connect4TextConsole {
      */
     public static void main(String[] args) throws Exception {
         // Basic Menu Selection
-        System.out.println("WARNING: ALL AI IS BROKEN - IT WILL CRASH YOUR CLIENT\nEnter G to launch the Connect 4 GUI or enter C to play against a computer P for Player to continue with console\n" +
+        System.out.println("Enter G to launch the Connect 4 GUI or enter C to play against a computer P for Player to continue with console\n" +
                 "You may press Q to quit at anytime.");
         while (true) {
             switch (br.readLine().toUpperCase()) {
@@ -63,21 +62,21 @@ public class Connect4TextConsole {
     private static boolean gameTurn(String move) throws Exception {
         switch (c.sendMove(move)) {
             case -2:game.update(move);
-                    System.out.println(game.getBoard());
+                    printBoard();
                     endGame("You");
                     c.sendMove("r");
                     break;
             case 0: game.update(move);
-                    System.out.println(game.getBoard());
-                    System.out.println("Waiting on other player...");
+                    printBoard();
+                    System.out.println("Waiting on " + opponent + "...");
                     move = Integer.toString(c.getPlayerMove());
                     if (move.equals("-2")) {
-                        game.update(Integer.toString(c.getPlayerMove()));
-                        System.out.println(game.getBoard());
+                        game.update(c.getPlayerMove());
+                        printBoard();
                         endGame("Opponent");
                     } else {
                         game.update(move);
-                        System.out.println(game.getBoard());
+                        printBoard();
                     }
                     break;
             case -1: System.out.println("Uh oh... Something went wrong... Terminating");
@@ -89,30 +88,36 @@ public class Connect4TextConsole {
         return true;
     }
 
+    /**
+     * Streams the board to the console without building a String
+     *
+     * @throws IOException Never for the console
+     */
+    private static void printBoard() throws IOException {
+        game.writeBoard(System.out);
+        System.out.println();
+    }
+
     /**
      * The main loop for the game
-     * @param choice boolean if the AI is enabled or not
+     * @param choice boolean if the AI is enabled or not, it plays on the server
      * @throws Exception Grabbing input from BufferedReader, most exceptions should be handled already
      */
     private static void gameLoop(boolean choice) throws Exception {
-        Connect4ComputerPlayer ai = null;
         game = new Connect4();
         game.initBoard();
         String player = "";
-
-        /* TO-DO: IMPLEMENT AI VIA SERVER
-        if (choice)
-            ai = new Connect4ComputerPlayer();
-        */
+        opponent = choice ? "the AI" : "other player";
 
         try {
-            c = new Connect4Client();
-            System.out.println("Successfully connected.\nMatchmaking with other client...");
+            c = new Connect4Client(choice);
+            System.out.println(choice ? "Successfully connected.\nStarting a game against the AI..."
+                    : "Successfully connected.\nMatchmaking with other client...");
             player = c.getInitial();
             if (player.equals("X")) {
-                System.out.println("Waiting on other player...");
-                game.update(Integer.toString(c.getPlayerMove()));
-                System.out.println(game.getBoard());
+                System.out.println("Waiting on " + opponent + "...");
+                game.update(c.getPlayerMove());
+                printBoard();
             }
         }
         catch (Exception e) {
@@ -128,14 +133,6 @@ public class Connect4TextConsole {
             while (!gameTurn(br.readLine())) {
                 System.out.println("Error, try again.\nPlayer" + player + " your turn, choose column 1-7");
             }
-
-            /* TO-DO: IMPLEMENT AI VIA SERVER
-            if (choice) {
-                System.out.println("AI is thinking... Please do not enter anything.\n");
-                sleep(2000);
-                while (!gameTurn(ai.generate(game.getLastColumn()))) ;
-                System.out.printf("AI Move: %d\n", game.getLastColumn());
-            }*/
         }
     }
 